@@ -0,0 +1,38 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns query strings (e.g., `owner=Fry&category=homework`) into the query
+ * parameter maps the databases take, so the benchmarks' queries can be
+ * written the same way they'd appear in a request.
+ */
+public final class QueryStrings {
+
+  private QueryStrings() {
+  }
+
+  /**
+   * Parse a query string. The values aren't URL-decoded, so they should be
+   * written out plainly (e.g., `category=software design`).
+   *
+   * @param query the query string, without a leading `?`; may be empty
+   * @return the query parameters, mapping each name to its values
+   */
+  public static Map<String, List<String>> parse(String query) {
+    Map<String, List<String>> params = new HashMap<>();
+    if (query.isEmpty()) {
+      return params;
+    }
+    for (String param : query.split("&")) {
+      int equals = param.indexOf('=');
+      String name = equals < 0 ? param : param.substring(0, equals);
+      String value = equals < 0 ? "" : param.substring(equals + 1);
+      params.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+    }
+    return params;
+  }
+}
@@ -0,0 +1,150 @@
+package umm3601.todo;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.DatasetGenerator;
+import umm3601.QueryStrings;
+
+/**
+ * Benchmarks for the `TodoDatabase` query paths, over synthetic datasets
+ * of increasing size, made by `DatasetGenerator`.
+ * <p>
+ * The `filterTodosBy*()` and `sortTodos()` benchmarks measure the
+ * straightforward stream-based methods over every todo, and so give a
+ * baseline to compare the indexed `listTodos()` queries against.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx16g" })
+@State(Scope.Benchmark)
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+public class TodoDatabaseBenchmark {
+
+  // The number of todos in the dataset.
+  @Param({ "200", "10000", "1000000", "10000000" })
+  public int size;
+
+  // The number of (randomly chosen) IDs `getTodo()` looks up.
+  private static final int ID_COUNT = 1024;
+
+  private Todo[] allTodos;
+
+  // The stream-based methods only look at the todos they're given, so
+  // they don't need a database holding any.
+  private TodoDatabase baseline;
+
+  @Setup
+  public void setUp() throws IOException {
+    allTodos = new DatasetGenerator(DatasetGenerator.DEFAULT_SEED).todos(size);
+    baseline = new TodoDatabase(new Todo[0]);
+  }
+
+  /**
+   * A database holding the dataset, stored in each of the ways a
+   * `TodoDatabase` can store it. Only the benchmarks that go through the
+   * database's own storage use this, so the others aren't run once for
+   * each way of storing the todos.
+   */
+  @State(Scope.Benchmark)
+  public static class Stored {
+    // How the database stores its todos (see `TodoDatabase.Storage`).
+    @Param({ "OBJECTS", "COLUMNAR", "MAPPED" })
+    public String storage;
+
+    TodoDatabase db;
+    String[] ids;
+
+    @Setup
+    public void setUp(TodoDatabaseBenchmark dataset) throws IOException {
+      db = new TodoDatabase(dataset.allTodos, TodoDatabase.Storage.named(storage));
+      Random random = new Random(dataset.size);
+      ids = new String[ID_COUNT];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = dataset.allTodos[random.nextInt(dataset.allTodos.length)]._id.toString();
+      }
+    }
+  }
+
+  /**
+   * A `listTodos()` query, as it would appear in a request.
+   */
+  @State(Scope.Benchmark)
+  public static class Query {
+    @Param({
+        "",
+        "status=complete",
+        "owner=Fry",
+        "owner=Fry&category=homework",
+        "contains=tempor",
+        "status=incomplete&orderBy=owner&limit=20",
+        "category=video games&pageSize=50"
+    })
+    public String query;
+
+    Map<String, List<String>> params;
+
+    @Setup
+    public void setUp() {
+      params = QueryStrings.parse(query);
+    }
+  }
+
+  @Benchmark
+  public Todo getTodo(Stored stored) {
+    return stored.db.getTodo(stored.ids[ThreadLocalRandom.current().nextInt(stored.ids.length)]);
+  }
+
+  @Benchmark
+  public Todo[] listTodos(Stored stored, Query query) {
+    return stored.db.listTodos(query.params);
+  }
+
+  @Benchmark
+  public Todo[] filterTodosByStatus() {
+    return baseline.filterTodosByStatus(allTodos, "complete");
+  }
+
+  @Benchmark
+  public Todo[] filterTodosByBody() {
+    return baseline.filterTodosByBody(allTodos, "tempor");
+  }
+
+  @Benchmark
+  public Todo[] filterTodosByOwner() {
+    return baseline.filterTodosByOwner(allTodos, "Fry");
+  }
+
+  @Benchmark
+  public Todo[] filterTodosByCategory() {
+    return baseline.filterTodosByCategory(allTodos, "homework");
+  }
+
+  @Benchmark
+  public Todo[] filterTodosByLimit() {
+    return baseline.filterTodosByLimit(allTodos, 20);
+  }
+
+  @Benchmark
+  public Todo[] sortTodos() {
+    return baseline.sortTodos(allTodos, "owner");
+  }
+}
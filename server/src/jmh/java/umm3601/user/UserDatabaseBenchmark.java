@@ -0,0 +1,107 @@
+package umm3601.user;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.DatasetGenerator;
+import umm3601.QueryStrings;
+
+/**
+ * Benchmarks for the `UserDatabase` query paths, over synthetic datasets
+ * of increasing size, made by `DatasetGenerator`.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx16g" })
+@State(Scope.Benchmark)
+@SuppressWarnings({ "MagicNumber", "VisibilityModifier" })
+public class UserDatabaseBenchmark {
+
+  // The number of users in the dataset.
+  @Param({ "200", "10000", "1000000", "10000000" })
+  public int size;
+
+  // The number of (randomly chosen) IDs `getUser()` looks up.
+  private static final int ID_COUNT = 1024;
+
+  private UserDatabase db;
+  private User[] allUsers;
+  private String[] ids;
+
+  @Setup
+  public void setUp() throws IOException {
+    db = new UserDatabase(new DatasetGenerator(DatasetGenerator.DEFAULT_SEED).users(size));
+    allUsers = db.listUsers(Map.of());
+    Random random = new Random(size);
+    ids = new String[ID_COUNT];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = allUsers[random.nextInt(allUsers.length)]._id.toString();
+    }
+  }
+
+  /**
+   * A `listUsers()` query, as it would appear in a request.
+   */
+  @State(Scope.Benchmark)
+  public static class Query {
+    @Param({
+        "",
+        "age=25",
+        "company=OHMNET",
+        "role=viewer",
+        "company=OHMNET&role=admin",
+        "role=viewer&pageSize=50"
+    })
+    public String query;
+
+    Map<String, List<String>> params;
+
+    @Setup
+    public void setUp() {
+      params = QueryStrings.parse(query);
+    }
+  }
+
+  @Benchmark
+  public User getUser() {
+    return db.getUser(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+  }
+
+  @Benchmark
+  public User[] listUsers(Query query) {
+    return db.listUsers(query.params);
+  }
+
+  @Benchmark
+  public User[] filterUsersByAge() {
+    return db.filterUsersByAge(allUsers, 25);
+  }
+
+  @Benchmark
+  public User[] filterUsersByCompany() {
+    return db.filterUsersByCompany(allUsers, "OHMNET");
+  }
+
+  @Benchmark
+  public User[] filterUsersByRole() {
+    return db.filterUsersByRole(allUsers, "viewer");
+  }
+}
@@ -0,0 +1,332 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import io.javalin.Javalin;
+
+/**
+ * A load test that starts the server in this JVM and sends it `/api/todos`
+ * and `/api/users` requests at a fixed rate, reporting the throughput and
+ * the latency distribution for each kind of request.
+ * <p>
+ * Requests are sent on a fixed schedule (an "open" workload), whether or
+ * not earlier requests have finished, and each request's latency is
+ * measured from when it was *scheduled* to be sent rather than from when
+ * it actually was. If the server (or this client) stalls, the requests that
+ * should have been sent during the stall count the time they spent
+ * waiting, rather than quietly not being sent at all. Measuring the other
+ * way, known as "coordinated omission", can make the tail latencies look
+ * far better than any real client would see. The uncorrected service times
+ * are reported alongside, for comparison.
+ * <p>
+ * Run it with `./gradlew loadTest`, optionally passing `name=value`
+ * settings, e.g., `--args="rate=2000 duration=60"`:
+ *
+ * - `rate` - requests to send per second (500)
+ * - `duration` - how long to measure for, in seconds (30)
+ * - `warmup` - how long to send requests for before measuring, in seconds (10)
+ * - `mix` - a file with the requests to send, one `<weight> <path>` per
+ *   line, e.g., `25 /api/todos?owner=Fry`; each request is picked at random
+ *   in proportion to its weight (a built-in mix of todo and user queries)
+ * - `out` - a directory to write each request's full latency distribution
+ *   to, as `.hgrm` files, for comparing builds (none)
+ * - `seed` - the seed for choosing requests from the mix (3601)
+ * - any `server.*` setting (see `ServerConfig`), e.g., `server.virtual-threads=true`
+ *
+ * The server loads its data just as `Main` does, so it can be run against a
+ * large dataset made by `DatasetGenerator` by setting `TODO_DATA_FILE` and
+ * `USER_DATA_FILE`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public final class LoadTest {
+
+  // The requests we send by default, and their weights.
+  private static final String DEFAULT_MIX = String.join("\n",
+      "25 /api/todos?owner=Fry&limit=20",
+      "15 /api/todos?status=complete&orderBy=owner&limit=50",
+      "10 /api/todos?contains=tempor&limit=20",
+      "10 /api/todos?category=homework&pageSize=100",
+      "5 /api/todos",
+      "15 /api/users?role=viewer",
+      "10 /api/users?company=OHMNET",
+      "10 /api/users?age=25");
+
+  // The precision of the latency histograms, in significant decimal digits.
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private LoadTest() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> settings = new HashMap<>();
+    // Listen on any free port, unless we're told otherwise.
+    settings.put("server.port", "0");
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (equals < 0) {
+        throw new IllegalArgumentException("Expected a name=value setting, but got '" + arg + "'");
+      }
+      settings.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+    int rate = Integer.parseInt(settings.getOrDefault("rate", "500"));
+    int durationSeconds = Integer.parseInt(settings.getOrDefault("duration", "30"));
+    int warmupSeconds = Integer.parseInt(settings.getOrDefault("warmup", "10"));
+    long seed = Long.parseLong(settings.getOrDefault("seed", "3601"));
+    String mixFile = settings.get("mix");
+    List<Target> targets = parseMix(mixFile == null ? DEFAULT_MIX : Files.readString(Path.of(mixFile)));
+
+    Javalin javalin = new Server(Main.getControllers(), new ServerConfig(settings::get)).startServer();
+    try {
+      String baseUrl = "http://localhost:" + javalin.port();
+      System.out.printf("Sending %d requests/s to %s for %d s (after %d s of warmup)%n",
+          rate, baseUrl, durationSeconds, warmupSeconds);
+      long elapsed = run(baseUrl, targets, rate, warmupSeconds, durationSeconds, new Random(seed));
+      report(targets, elapsed);
+      if (settings.containsKey("out")) {
+        writeDistributions(targets, Path.of(settings.get("out")));
+      }
+    } finally {
+      javalin.stop();
+    }
+  }
+
+  /**
+   * Parse a request mix: one `<weight> <path>` per line. Blank lines and
+   * lines starting with `#` are ignored.
+   *
+   * @param mix the request mix
+   * @return the requests to send
+   */
+  private static List<Target> parseMix(String mix) {
+    List<Target> targets = new ArrayList<>();
+    int totalWeight = 0;
+    for (String rawLine : mix.split("\n")) {
+      String line = rawLine.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] parts = line.split("\\s+", 2);
+      if (parts.length < 2) {
+        throw new IllegalArgumentException("Expected '<weight> <path>' in the mix, but got '" + line + "'");
+      }
+      totalWeight += Integer.parseInt(parts[0]);
+      targets.add(new Target(parts[1], totalWeight));
+    }
+    if (targets.isEmpty()) {
+      throw new IllegalArgumentException("The request mix is empty");
+    }
+    return targets;
+  }
+
+  /**
+   * Send requests at a fixed rate, first for the warmup period (without
+   * recording anything) and then for the measured period.
+   *
+   * @param baseUrl         the URL of the server
+   * @param targets         the requests to choose from
+   * @param rate            the number of requests to send per second
+   * @param warmupSeconds   how long to warm up for
+   * @param durationSeconds how long to measure for
+   * @param random          the source of randomness for choosing requests
+   * @return the time from the start of the measured period until its last
+   *         request finished, in nanoseconds
+   */
+  private static long run(String baseUrl, List<Target> targets, int rate, int warmupSeconds, int durationSeconds,
+      Random random) {
+    long interval = NANOS_PER_SECOND / rate;
+    long start = System.nanoTime();
+    long measureStart = start + warmupSeconds * NANOS_PER_SECOND;
+    long end = measureStart + durationSeconds * NANOS_PER_SECOND;
+    int totalWeight = targets.get(targets.size() - 1).cumulativeWeight;
+
+    // The resources are closed in the opposite order, so closing the
+    // executor waits for every request to finish before the client closes.
+    ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+    try (HttpClient client = HttpClient.newBuilder()
+            .executor(clientThreads)
+            .version(HttpClient.Version.HTTP_1_1)
+            .build();
+        clientThreads) {
+      // Each request has its own slot in the schedule. If we've fallen
+      // behind (e.g., because of a GC pause), we send the requests we
+      // missed straight away, and they count the time they were late.
+      for (long i = 0; start + i * interval < end; i++) {
+        long scheduled = start + i * interval;
+        for (long now = System.nanoTime(); now < scheduled; now = System.nanoTime()) {
+          LockSupport.parkNanos(scheduled - now);
+        }
+        Target target = choose(targets, random.nextInt(totalWeight));
+        boolean measured = scheduled >= measureStart;
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + target.path))
+            .timeout(REQUEST_TIMEOUT)
+            .build();
+        clientThreads.execute(() -> send(client, request, target, scheduled, measured));
+      }
+    }
+    return System.nanoTime() - measureStart;
+  }
+
+  /**
+   * Send a single request, and record its latency if it's being measured.
+   *
+   * @param client    the HTTP client
+   * @param request   the request
+   * @param target    the kind of request it is
+   * @param scheduled the time the request was scheduled to be sent
+   * @param measured  whether to record the request
+   */
+  private static void send(HttpClient client, HttpRequest request, Target target, long scheduled,
+      boolean measured) {
+    long sent = System.nanoTime();
+    boolean succeeded;
+    try {
+      HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+      succeeded = response.statusCode() == 200;
+    } catch (IOException | InterruptedException e) {
+      succeeded = false;
+    }
+    long done = System.nanoTime();
+    if (!measured) {
+      return;
+    }
+    if (succeeded) {
+      target.latency.recordValue(done - scheduled);
+      target.serviceTime.recordValue(done - sent);
+    } else {
+      target.failures.increment();
+    }
+  }
+
+  /**
+   * Choose the request for a (random) weight.
+   *
+   * @param targets the requests to choose from
+   * @param weight  a number from 0 up to (but not including) the total weight
+   * @return the first request whose cumulative weight is more than `weight`
+   */
+  private static Target choose(List<Target> targets, int weight) {
+    for (Target target : targets) {
+      if (weight < target.cumulativeWeight) {
+        return target;
+      }
+    }
+    return targets.get(targets.size() - 1);
+  }
+
+  /**
+   * Print the throughput, and a table of latency percentiles for each kind
+   * of request and for all of them together.
+   *
+   * @param targets the requests that were sent
+   * @param elapsed the length of the measured period, in nanoseconds
+   */
+  private static void report(List<Target> targets, long elapsed) {
+    Histogram allLatencies = new Histogram(SIGNIFICANT_DIGITS);
+    Histogram allServiceTimes = new Histogram(SIGNIFICANT_DIGITS);
+    long failures = 0;
+    System.out.printf("%n%-56s %8s %8s %8s %8s %9s %9s %6s%n",
+        "request", "count", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "fail");
+    for (Target target : targets) {
+      target.latencyHistogram = target.latency.getIntervalHistogram();
+      target.serviceTimeHistogram = target.serviceTime.getIntervalHistogram();
+      allLatencies.add(target.latencyHistogram);
+      allServiceTimes.add(target.serviceTimeHistogram);
+      failures += target.failures.sum();
+      printRow(target.path, target.latencyHistogram, target.failures.sum());
+    }
+    printRow("all requests", allLatencies, failures);
+    printRow("all requests (service time, uncorrected)", allServiceTimes, failures);
+    System.out.printf("%nThroughput: %.0f requests/s, %d failed%n",
+        (allLatencies.getTotalCount() + failures) / (elapsed / (double) NANOS_PER_SECOND), failures);
+  }
+
+  /**
+   * Print a row of the latency table.
+   *
+   * @param name      what the row is for
+   * @param latencies the latencies, in nanoseconds
+   * @param failures  the number of requests that failed
+   */
+  private static void printRow(String name, Histogram latencies, long failures) {
+    System.out.printf("%-56s %8d %8.2f %8.2f %8.2f %8.2f %9.2f %6d%n",
+        name.length() > 56 ? name.substring(0, 53) + "..." : name,
+        latencies.getTotalCount(),
+        latencies.getValueAtPercentile(50) / NANOS_PER_MILLI,
+        latencies.getValueAtPercentile(90) / NANOS_PER_MILLI,
+        latencies.getValueAtPercentile(99) / NANOS_PER_MILLI,
+        latencies.getValueAtPercentile(99.9) / NANOS_PER_MILLI,
+        latencies.getMaxValue() / NANOS_PER_MILLI,
+        failures);
+  }
+
+  /**
+   * Write the full latency distribution for each kind of request to a
+   * `.hgrm` file, in milliseconds, which HdrHistogram's plotter can show
+   * side by side with the results from another build.
+   *
+   * @param targets   the requests that were sent
+   * @param directory the directory to write the files to
+   */
+  private static void writeDistributions(List<Target> targets, Path directory) throws IOException {
+    Files.createDirectories(directory);
+    for (int i = 0; i < targets.size(); i++) {
+      Target target = targets.get(i);
+      Path file = directory.resolve(String.format("%02d-%s.hgrm", i + 1,
+          target.path.replaceAll("[^A-Za-z0-9]+", "_").replaceAll("^_|_$", "")));
+      try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+        out.println("# " + target.path);
+        target.latencyHistogram.outputPercentileDistribution(out, NANOS_PER_MILLI);
+      }
+    }
+    System.out.println("Wrote latency distributions to " + directory);
+  }
+
+  /**
+   * One kind of request in the mix, and the latencies recorded for it.
+   */
+  private static final class Target {
+    private final String path;
+    // The total weight of this request and all the ones before it in the
+    // mix, for choosing requests at random.
+    private final int cumulativeWeight;
+    // The latency from when each request was scheduled to be sent, and the
+    // (uncorrected) time from when it was actually sent, in nanoseconds.
+    // A `Recorder` can safely be recorded into from many threads at once.
+    private final Recorder latency = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder serviceTime = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder failures = new LongAdder();
+    // The recorded latencies, collected once the run is over.
+    private Histogram latencyHistogram;
+    private Histogram serviceTimeHistogram;
+
+    Target(String path, int cumulativeWeight) {
+      this.path = path;
+      this.cumulativeWeight = cumulativeWeight;
+    }
+  }
+}
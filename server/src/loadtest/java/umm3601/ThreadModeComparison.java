@@ -0,0 +1,215 @@
+package umm3601;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.javalin.Javalin;
+
+/**
+ * Compare how the server handles bursts of `/api/todos` requests when its
+ * request handlers run on Jetty's usual pool of platform threads and when
+ * they run on virtual threads.
+ * <p>
+ * For each mode this starts the server (on any free port), sends it a
+ * fixed number of requests with a fixed number in flight at any one time,
+ * and reports the throughput and latency percentiles. Each mode runs in a
+ * JVM of its own, so neither one gets the benefit of the JIT compiling the
+ * server while the other was running. Run it with
+ * `./gradlew compareThreadModes`, optionally passing the number of requests
+ * and the concurrency, e.g. `--args="50000 500"`, and then (to run just
+ * one mode, in this JVM) `platform` or `virtual`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public final class ThreadModeComparison {
+
+  // The requests we send, in rotation: a full list, a sorted filter, a
+  // small owner query, and a body search.
+  private static final String[] PATHS = {
+    "/api/todos",
+    "/api/todos?status=complete&orderBy=owner",
+    "/api/todos?owner=Blanche&limit=10",
+    "/api/todos?contains=ipsum"
+  };
+
+  private static final int DEFAULT_REQUESTS = 20_000;
+  private static final int DEFAULT_CONCURRENCY = 200;
+  private static final int WARMUP_REQUESTS = 2_000;
+
+  // The names of the modes, as given on the command line.
+  private static final String PLATFORM = "platform";
+  private static final String VIRTUAL = "virtual";
+
+  private ThreadModeComparison() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REQUESTS;
+    int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONCURRENCY;
+
+    if (args.length > 2) {
+      runMode(args[2], requests, concurrency);
+    } else {
+      for (String mode : new String[] {PLATFORM, VIRTUAL}) {
+        fork(mode, requests, concurrency);
+      }
+    }
+  }
+
+  /**
+   * Run the comparison for one mode in a new JVM, with the same class path
+   * and JVM options as this one, and wait for it to finish.
+   *
+   * @param mode        the name of the mode
+   * @param requests    the number of requests to send
+   * @param concurrency the most requests to have in flight at once
+   */
+  private static void fork(String mode, int requests, int concurrency) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(ThreadModeComparison.class.getName());
+    command.add(String.valueOf(requests));
+    command.add(String.valueOf(concurrency));
+    command.add(mode);
+    int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+    if (exitCode != 0) {
+      throw new IOException("The " + mode + " run failed with exit code " + exitCode);
+    }
+  }
+
+  /**
+   * Start the server in the given mode, and send it requests.
+   *
+   * @param mode        the name of the mode
+   * @param requests    the number of requests to send
+   * @param concurrency the most requests to have in flight at once
+   */
+  private static void runMode(String mode, int requests, int concurrency)
+      throws IOException, InterruptedException {
+    if (!mode.equals(PLATFORM) && !mode.equals(VIRTUAL)) {
+      throw new IllegalArgumentException("Unknown mode '" + mode + "'; use '" + PLATFORM + "' or '" + VIRTUAL + "'");
+    }
+    ServerConfig config = new ServerConfig(Map.of(
+        "server.virtual-threads", String.valueOf(mode.equals(VIRTUAL)),
+        // Listen on any free port.
+        "server.port", "0")::get);
+    Javalin javalin = new Server(Main.getControllers(), config).startServer();
+    try {
+      String baseUrl = "http://localhost:" + javalin.port();
+      run(baseUrl, WARMUP_REQUESTS, concurrency);
+      long[] latencies = new long[requests];
+      long elapsed = run(baseUrl, requests, concurrency, latencies);
+      report(mode + " threads", latencies, elapsed);
+    } finally {
+      javalin.stop();
+    }
+  }
+
+  /**
+   * Send requests to the server, without keeping track of their latencies.
+   *
+   * @param baseUrl     the URL the server is listening on
+   * @param requests    the number of requests to send
+   * @param concurrency the most requests to have in flight at once
+   */
+  private static void run(String baseUrl, int requests, int concurrency) throws InterruptedException {
+    run(baseUrl, requests, concurrency, new long[requests]);
+  }
+
+  /**
+   * Send requests to the server, recording the latency of each.
+   *
+   * @param baseUrl     the URL the server is listening on
+   * @param requests    the number of requests to send
+   * @param concurrency the most requests to have in flight at once
+   * @param latencies   where to record each request's latency, in nanoseconds
+   * @return the total time taken, in nanoseconds
+   */
+  private static long run(String baseUrl, int requests, int concurrency, long[] latencies)
+      throws InterruptedException {
+    AtomicInteger failures = new AtomicInteger();
+    Semaphore inFlight = new Semaphore(concurrency);
+    long start = System.nanoTime();
+    try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient client = HttpClient.newBuilder().executor(clientThreads).build()) {
+      for (int i = 0; i < requests; i++) {
+        int request = i;
+        HttpRequest httpRequest = HttpRequest.newBuilder(URI.create(baseUrl + PATHS[i % PATHS.length])).build();
+        inFlight.acquire();
+        clientThreads.execute(() -> {
+          long sent = System.nanoTime();
+          try {
+            HttpResponse<byte[]> response = client.send(httpRequest, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+              failures.incrementAndGet();
+            }
+          } catch (IOException | InterruptedException e) {
+            failures.incrementAndGet();
+          } finally {
+            latencies[request] = System.nanoTime() - sent;
+            inFlight.release();
+          }
+        });
+      }
+      inFlight.acquire(concurrency);
+    }
+    if (failures.get() > 0) {
+      System.err.println(failures.get() + " of " + requests + " requests failed");
+    }
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Print the throughput and latency percentiles for a run.
+   *
+   * @param mode      the name of the thread mode the server was using
+   * @param latencies each request's latency, in nanoseconds
+   * @param elapsed   the total time taken, in nanoseconds
+   */
+  private static void report(String mode, long[] latencies, long elapsed) {
+    Arrays.sort(latencies);
+    System.out.printf("%-16s %8.0f req/s  p50 %6.2f ms  p99 %7.2f ms  max %7.2f ms%n",
+        mode,
+        latencies.length / (elapsed / (double) TimeUnit.SECONDS.toNanos(1)),
+        millis(percentile(latencies, 0.5)),
+        millis(percentile(latencies, 0.99)),
+        millis(latencies[latencies.length - 1]));
+  }
+
+  /**
+   * Get a percentile of some (sorted) latencies.
+   *
+   * @param sorted   the latencies, in increasing order
+   * @param fraction the percentile, as a fraction (e.g., 0.99 for the 99th)
+   * @return the latency at that percentile
+   */
+  private static long percentile(long[] sorted, double fraction) {
+    return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+  }
+
+  /**
+   * Convert nanoseconds to (fractional) milliseconds.
+   *
+   * @param nanos a time in nanoseconds
+   * @return the same time in milliseconds
+   */
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,122 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+/**
+ * Support for sending pre-compressed (gzipped) response bodies.
+ *
+ * Compressing a large response takes a lot longer than sending the bytes
+ * we cached for it, so for responses we send over and over again we keep
+ * a gzipped copy alongside the original, and send that to any client that
+ * accepts gzip. Small responses are never compressed, since the savings
+ * are tiny and can be outweighed by the gzip header and the time spent.
+ */
+public final class Compression {
+
+  /**
+   * The content coding for gzip, as used in `Accept-Encoding` and
+   * `Content-Encoding`.
+   */
+  public static final String GZIP = "gzip";
+
+  // Responses smaller than this (in bytes) aren't worth compressing; this
+  // is about the size of a single network packet.
+  private static final int MIN_COMPRESSIBLE_SIZE = 1500;
+
+  private Compression() {
+  }
+
+  /**
+   * Check whether the client accepts gzipped responses, according to its
+   * `Accept-Encoding` header.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if we can send the client a gzipped response
+   */
+  public static boolean acceptsGzip(Context ctx) {
+    String acceptEncoding = ctx.header(Header.ACCEPT_ENCODING);
+    if (acceptEncoding == null) {
+      return false;
+    }
+    // An explicit `gzip` (or the older `x-gzip`) takes precedence over `*`.
+    boolean wildcardAccepted = false;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase();
+      if (name.equals(GZIP) || name.equals("x-gzip")) {
+        return !hasZeroQuality(parts);
+      }
+      if (name.equals("*")) {
+        wildcardAccepted = !hasZeroQuality(parts);
+      }
+    }
+    return wildcardAccepted;
+  }
+
+  /**
+   * Check whether one of the codings in an `Accept-Encoding` header (or
+   * one of the media types in an `Accept` header) has a quality value of
+   * zero, which means the client does *not* accept it.
+   *
+   * @param parts the coding's name, followed by its parameters
+   * @return true if the coding has `q=0`
+   */
+  static boolean hasZeroQuality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String param = parts[i].trim();
+      if (param.startsWith("q=")) {
+        try {
+          return Double.parseDouble(param.substring(2)) <= 0;
+        } catch (NumberFormatException e) {
+          return false;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gzip a response body, if it's worth it.
+   *
+   * @param body the response body
+   * @return the gzipped body, or `null` if the body is too small to be
+   *         worth compressing or doesn't get any smaller
+   */
+  public static byte[] gzip(byte[] body) {
+    if (body.length < MIN_COMPRESSIBLE_SIZE) {
+      return null;
+    }
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(body);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compressed.size() < body.length ? compressed.toByteArray() : null;
+  }
+
+  /**
+   * Send an already gzipped response body.
+   * <p>
+   * This writes straight to the servlet response, rather than through
+   * `ctx.result()`, so Javalin won't try to compress the body again.
+   *
+   * @param ctx     a Javalin HTTP context
+   * @param gzipped the gzipped body
+   */
+  public static void writeGzipped(Context ctx, byte[] gzipped) {
+    ctx.header(Header.CONTENT_ENCODING, GZIP);
+    ctx.res().setContentLength(gzipped.length);
+    try {
+      ctx.res().getOutputStream().write(gzipped);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
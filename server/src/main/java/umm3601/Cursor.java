@@ -0,0 +1,152 @@
+package umm3601;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * Opaque cursor tokens for paging through a list of results.
+ *
+ * A cursor records which ordering a page was taken from (e.g., "owner" for
+ * todos sorted by owner) and the position, within that ordering, of the
+ * last item on the page. The next page then starts just after that
+ * position, so clients never have to re-download earlier pages and the
+ * server never has to skip over them. It also records how many items
+ * have been returned so far, so that a `limit` can cover all the pages
+ * together.
+ *
+ * The token is just Base64 (URL safe, so it can go straight into a query
+ * string), but clients should treat it as opaque and only ever hand back
+ * exactly what the server gave them.
+ */
+public final class Cursor {
+
+  /**
+   * The name of the response header the next page's cursor is returned in.
+   */
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  private Cursor() {
+  }
+
+  /**
+   * Create a cursor token.
+   *
+   * @param ordering the name of the ordering the page was taken from
+   * @param position the position, in that ordering, of the last item on the page
+   * @return the opaque cursor token
+   */
+  public static String encode(String ordering, int position) {
+    return encode(ordering, position, 0);
+  }
+
+  /**
+   * Create a cursor token that also records how many items have been
+   * returned so far, so that paging can stop once a `limit` is reached.
+   *
+   * @param ordering the name of the ordering the page was taken from
+   * @param position the position, in that ordering, of the last item on the page
+   * @param returned the number of items on this page and all the pages before it
+   * @return the opaque cursor token
+   */
+  public static String encode(String ordering, int position, int returned) {
+    String cursor = ordering + ":" + position + ":" + returned;
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decode a cursor token, and get the position at which the next page
+   * should start.
+   *
+   * @param token    the cursor token, as given to us by the client
+   * @param ordering the name of the ordering the client is asking for; this
+   *                 has to match the ordering the cursor was created for
+   * @return the position just after the last item on the previous page
+   */
+  public static int decode(String token, String ordering) {
+    String[] parts = parse(token);
+    if (!parts[0].equals(ordering)) {
+      throw new BadRequestResponse("Specified cursor '" + token + "' is not a valid cursor for this ordering");
+    }
+    int position = parseCount(token, parts[1]);
+    // There's nothing after the last possible position, and stepping past
+    // it would overflow.
+    if (position == Integer.MAX_VALUE) {
+      throw new BadRequestResponse("Specified cursor '" + token + "' is not a valid cursor");
+    }
+    return position + 1;
+  }
+
+  /**
+   * Decode a cursor token, and get the number of items returned on the
+   * pages up to (and including) the one it came with.
+   *
+   * @param token the cursor token, as given to us by the client
+   * @return the number of items returned so far
+   */
+  public static int returned(String token) {
+    return parseCount(token, parse(token)[2]);
+  }
+
+  /**
+   * Split a cursor token into its ordering, position, and number of items
+   * returned so far.
+   *
+   * @param token the cursor token, as given to us by the client
+   * @return the three parts of the cursor
+   */
+  private static String[] parse(String token) {
+    String cursor;
+    try {
+      cursor = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("Specified cursor '" + token + "' is not a valid cursor");
+    }
+    // The ordering comes first, and could be anything, so we split off
+    // the two numbers from the end.
+    int second = cursor.lastIndexOf(':');
+    int first = (second < 0) ? -1 : cursor.lastIndexOf(':', second - 1);
+    if (first < 0) {
+      throw new BadRequestResponse("Specified cursor '" + token + "' is not a valid cursor");
+    }
+    return new String[] {cursor.substring(0, first), cursor.substring(first + 1, second), cursor.substring(second + 1)};
+  }
+
+  /**
+   * Parse one of the numbers in a cursor token.
+   *
+   * @param token the cursor token, as given to us by the client
+   * @param count the number, as a string
+   * @return the number, which is never negative
+   */
+  private static int parseCount(String token, String count) {
+    try {
+      int value = Integer.parseInt(count);
+      if (value >= 0) {
+        return value;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through to the error below
+    }
+    throw new BadRequestResponse("Specified cursor '" + token + "' is not a valid cursor");
+  }
+
+  /**
+   * Parse the value of the `pageSize` query parameter.
+   *
+   * @param pageSizeParam the value of the `pageSize` query parameter
+   * @return the page size as a (positive) integer
+   */
+  public static int parsePageSize(String pageSizeParam) {
+    try {
+      int pageSize = Integer.parseInt(pageSizeParam);
+      if (pageSize > 0) {
+        return pageSize;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through to the error below
+    }
+    throw new BadRequestResponse("Specified pageSize '" + pageSizeParam + "' is not a positive integer");
+  }
+}
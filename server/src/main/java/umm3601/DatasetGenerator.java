@@ -0,0 +1,402 @@
+package umm3601;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import umm3601.todo.Todo;
+import umm3601.user.User;
+
+/**
+ * Generates synthetic todo and user datasets of any size, in the same shape
+ * as the bundled `todos.json` and `users.json`, for benchmarks, load tests,
+ * and running the server against a realistically large dataset.
+ * <p>
+ * Real data is rarely spread evenly: a few owners have most of the todos,
+ * and a few companies have most of the users. So the owners, categories,
+ * companies, and names are drawn from a Zipf distribution, where the
+ * `k`th most common value turns up about `1/k` times as often as the most
+ * common one. The values in the bundled samples are the most common ones,
+ * so queries written against the samples (e.g., `owner=Fry`) still find
+ * plenty of matches. The bodies are "lorem ipsum" sentences made from the
+ * same words as the samples' bodies.
+ * <p>
+ * The same seed always generates the same dataset. To write a dataset to a
+ * file, run this class (e.g., with `./gradlew generateDataset`) with
+ * arguments `todos|users <count> <file> [seed]`; the server can then load
+ * it by setting the `TODO_DATA_FILE` or `USER_DATA_FILE` environment
+ * variable to the file's path.
+ */
+public final class DatasetGenerator {
+
+  /**
+   * The seed used when none is given.
+   */
+  public static final long DEFAULT_SEED = 3601;
+
+  // The values for each field, most common first. The first few of each
+  // are the values in the bundled samples.
+  private static final String[] OWNERS = {
+    "Fry", "Barry", "Dawn", "Workman", "Roberta", "Blanche", "Nettie", "Hines", "Alvarez", "Kerr",
+    "Molly", "Tasha", "Gaines", "Odom", "Jenny", "Colon", "Sheppard", "Lucile", "Briggs", "Vaughn",
+    "Avis", "Nolan", "Ruth", "Mcleod", "Della", "Pruitt", "Irwin", "Vera", "Gentry", "Elsa"
+  };
+  private static final String[] CATEGORIES = {
+    "homework", "groceries", "software design", "video games", "chores", "reading",
+    "fitness", "errands", "travel", "finances", "music", "gardening"
+  };
+  private static final String[] SAMPLE_COMPANIES = {
+    "OHMNET", "NIQUENT", "MOMENTIA", "DATAGENE", "SURELOGIC", "VINCH", "RECOGNIA", "ESCENTA", "KINETICUT"
+  };
+  // Further company names are made by joining one of these prefixes to
+  // one of these suffixes.
+  private static final String[] COMPANY_PREFIXES = {
+    "ACRU", "BIO", "CYTRE", "DIGI", "ECLIP", "FLEX", "GEEK", "HYPER", "INSU", "JUMP",
+    "KONG", "LUMB", "MAGNE", "NETP", "OPTI", "PLASM", "QUOT", "ROBO", "SYNT", "TERRA"
+  };
+  private static final String[] COMPANY_SUFFIXES = {
+    "NET", "TRON", "GENE", "LOGIC", "WARE", "CORE", "PLEX", "SYS", "TEX", "ZONE"
+  };
+  private static final String[] FIRST_NAMES = {
+    "Connie", "Lynn", "Roseann", "Stokes", "Valerie", "Kitty", "Bolton", "Marguerite", "Merrill", "Cervantes",
+    "Alice", "Boyd", "Candace", "Dale", "Eula", "Frost", "Gail", "Hale", "Iris", "Joyner"
+  };
+  private static final String[] LAST_NAMES = {
+    "Stewart", "Ferguson", "Roberson", "Clayton", "Erickson", "Page", "Monroe", "Norton", "Parker", "Morin",
+    "Abbott", "Barnes", "Carver", "Dalton", "Ellis", "Fleming", "Garza", "Holt", "Ingram", "Jarvis"
+  };
+  // The roles, and how many out of every 10 users have each, as in the
+  // samples.
+  private static final String[] ROLES = { "viewer", "editor", "admin" };
+  private static final int[] ROLE_WEIGHTS = { 5, 3, 2 };
+  private static final String[] WORDS = (
+      "dolor amet consectetur voluptate non anim adipisicing velit sunt commodo exercitation quis est "
+      + "eiusmod nostrud incididunt in proident nisi deserunt lorem fugiat laboris ullamco officia ea "
+      + "aliquip dolore sint aute irure nulla ex cupidatat reprehenderit et minim elit culpa laborum "
+      + "occaecat consequat eu sit ut mollit esse do aliqua id magna veniam enim ad pariatur excepteur "
+      + "duis qui cillum ipsum tempor labore").split(" ");
+
+  // How skewed each distribution is; larger is more skewed.
+  private static final double OWNER_SKEW = 1.0;
+  private static final double CATEGORY_SKEW = 0.8;
+  private static final double COMPANY_SKEW = 1.1;
+  private static final double NAME_SKEW = 0.6;
+
+  // The fraction of todos that are complete, as in the samples.
+  private static final double COMPLETE_FRACTION = 0.48;
+
+  // The shape of the bodies: each has 1 to `MAX_SENTENCES` sentences of
+  // `MIN_WORDS` to `MAX_WORDS` words.
+  private static final int MAX_SENTENCES = 3;
+  private static final int MIN_WORDS = 4;
+  private static final int MAX_WORDS = 16;
+
+  // The spread of the users' ages.
+  private static final double MEAN_AGE = 32;
+  private static final double AGE_DEVIATION = 8;
+  private static final int MIN_AGE = 18;
+  private static final int MAX_AGE = 75;
+
+  // The first part of every generated `_id`, like the timestamp at the
+  // start of a MongoDB ObjectId.
+  private static final long ID_TIMESTAMP = 0x58895985L;
+
+  private static final int HEX_RADIX = 16;
+  private static final int AVATAR_HASH_LENGTH = 32;
+
+  private final Random random;
+  private final ZipfChoice<String> owners;
+  private final ZipfChoice<String> categories;
+  private final ZipfChoice<String> companies;
+  private final ZipfChoice<String> firstNames;
+  private final ZipfChoice<String> lastNames;
+
+  // The number of records generated so far, which makes each `_id` unique.
+  private long generated;
+
+  /**
+   * Construct a generator.
+   *
+   * @param seed the seed for the random choices; the same seed always
+   *             generates the same records
+   */
+  public DatasetGenerator(long seed) {
+    random = new Random(seed);
+    owners = new ZipfChoice<>(OWNERS, OWNER_SKEW);
+    categories = new ZipfChoice<>(CATEGORIES, CATEGORY_SKEW);
+    List<String> companyNames = new ArrayList<>(Arrays.asList(SAMPLE_COMPANIES));
+    for (String prefix : COMPANY_PREFIXES) {
+      for (String suffix : COMPANY_SUFFIXES) {
+        companyNames.add(prefix + suffix);
+      }
+    }
+    companies = new ZipfChoice<>(companyNames.toArray(new String[0]), COMPANY_SKEW);
+    firstNames = new ZipfChoice<>(FIRST_NAMES, NAME_SKEW);
+    lastNames = new ZipfChoice<>(LAST_NAMES, NAME_SKEW);
+  }
+
+  /**
+   * Write a dataset to a file.
+   *
+   * @param args `todos` or `users`, the number of records, the file to write
+   *             to, and (optionally) the seed
+   * @throws IOException if the file can't be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3 || !(args[0].equals("todos") || args[0].equals("users"))) {
+      System.err.println("Usage: DatasetGenerator todos|users <count> <file> [seed]");
+      System.exit(1);
+    }
+    int count = Integer.parseInt(args[1]);
+    Path file = Path.of(args[2]);
+    long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+
+    if (file.toAbsolutePath().getParent() != null) {
+      Files.createDirectories(file.toAbsolutePath().getParent());
+    }
+    DatasetGenerator generator = new DatasetGenerator(seed);
+    try (OutputStream out = Files.newOutputStream(file)) {
+      if (args[0].equals("todos")) {
+        generator.writeTodos(out, count);
+      } else {
+        generator.writeUsers(out, count);
+      }
+    }
+    System.out.printf("Wrote %d %s to %s%n", count, args[0], file);
+  }
+
+  /**
+   * Generate the next todo.
+   *
+   * @return a new todo
+   */
+  public Todo nextTodo() {
+    Todo todo = new Todo();
+    todo._id = nextId();
+    todo.owner = owners.next(random);
+    todo.status = random.nextDouble() < COMPLETE_FRACTION;
+    todo.body = body();
+    todo.category = categories.next(random);
+    return todo;
+  }
+
+  /**
+   * Generate the next user.
+   *
+   * @return a new user
+   */
+  public User nextUser() {
+    User user = new User();
+    user._id = nextId();
+    String firstName = firstNames.next(random);
+    String lastName = lastNames.next(random);
+    user.name = firstName + " " + lastName;
+    user.age = (int) Math.round(Math.max(MIN_AGE, Math.min(MAX_AGE,
+        MEAN_AGE + random.nextGaussian() * AGE_DEVIATION)));
+    user.company = companies.next(random);
+    user.email = (firstName + lastName + "@" + user.company + ".com").toLowerCase(Locale.ROOT);
+    user.avatar = "https://gravatar.com/avatar/" + hex(AVATAR_HASH_LENGTH) + "?d=identicon";
+    user.role = role();
+    return user;
+  }
+
+  /**
+   * Generate an array of todos.
+   *
+   * @param count the number of todos to generate
+   * @return the todos
+   */
+  public Todo[] todos(int count) {
+    Todo[] todos = new Todo[count];
+    for (int i = 0; i < count; i++) {
+      todos[i] = nextTodo();
+    }
+    return todos;
+  }
+
+  /**
+   * Generate an array of users.
+   *
+   * @param count the number of users to generate
+   * @return the users
+   */
+  public User[] users(int count) {
+    User[] users = new User[count];
+    for (int i = 0; i < count; i++) {
+      users[i] = nextUser();
+    }
+    return users;
+  }
+
+  /**
+   * Write a JSON array of todos to `out`, generating them one at a time
+   * so that even very large datasets don't need to fit in memory.
+   *
+   * @param out   the stream to write to; it isn't closed
+   * @param count the number of todos to write
+   * @throws IOException if the todos can't be written
+   */
+  public void writeTodos(OutputStream out, int count) throws IOException {
+    try (JsonGenerator json = arrayWriter(out)) {
+      json.writeStartArray();
+      for (int i = 0; i < count; i++) {
+        json.writeObject(nextTodo());
+      }
+      json.writeEndArray();
+    }
+  }
+
+  /**
+   * Write a JSON array of users to `out`, generating them one at a time.
+   *
+   * @param out   the stream to write to; it isn't closed
+   * @param count the number of users to write
+   * @throws IOException if the users can't be written
+   */
+  public void writeUsers(OutputStream out, int count) throws IOException {
+    try (JsonGenerator json = arrayWriter(out)) {
+      json.writeStartArray();
+      for (int i = 0; i < count; i++) {
+        json.writeObject(nextUser());
+      }
+      json.writeEndArray();
+    }
+  }
+
+  /**
+   * Make a JSON generator that writes records to `out` (without closing it)
+   * as fast as it can, rather than flushing after every record.
+   *
+   * @param out the stream to write to
+   * @return the JSON generator
+   * @throws IOException if the generator can't be created
+   */
+  private static JsonGenerator arrayWriter(OutputStream out) throws IOException {
+    ObjectMapper objectMapper = new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    return objectMapper.getFactory()
+        .createGenerator(new BufferedOutputStream(out))
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+  }
+
+  /**
+   * Make the next unique `_id`, in the same form (24 hex digits) as the
+   * MongoDB ObjectIds in the samples.
+   *
+   * @return the ID
+   */
+  private ObjectId nextId() {
+    long counter = generated++;
+    return new ObjectId((ID_TIMESTAMP << Integer.SIZE) | (counter >>> Integer.SIZE), (int) counter);
+  }
+
+  /**
+   * Make a "lorem ipsum" body of one or more sentences.
+   *
+   * @return the body
+   */
+  private String body() {
+    StringBuilder body = new StringBuilder();
+    int sentences = 1 + random.nextInt(MAX_SENTENCES);
+    for (int s = 0; s < sentences; s++) {
+      if (s > 0) {
+        body.append(' ');
+      }
+      int words = MIN_WORDS + random.nextInt(MAX_WORDS - MIN_WORDS + 1);
+      for (int w = 0; w < words; w++) {
+        String word = WORDS[random.nextInt(WORDS.length)];
+        if (w == 0) {
+          body.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        } else {
+          body.append(' ').append(word);
+        }
+      }
+      body.append('.');
+    }
+    return body.toString();
+  }
+
+  /**
+   * Choose a role, weighted as in the samples.
+   *
+   * @return the role
+   */
+  private String role() {
+    int totalWeight = Arrays.stream(ROLE_WEIGHTS).sum();
+    int choice = random.nextInt(totalWeight);
+    for (int i = 0; i < ROLES.length; i++) {
+      choice -= ROLE_WEIGHTS[i];
+      if (choice < 0) {
+        return ROLES[i];
+      }
+    }
+    return ROLES[ROLES.length - 1];
+  }
+
+  /**
+   * Make a string of random hex digits.
+   *
+   * @param length the number of digits
+   * @return the hex digits
+   */
+  private String hex(int length) {
+    StringBuilder hex = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      hex.append(Character.forDigit(random.nextInt(HEX_RADIX), HEX_RADIX));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Chooses from a list of values following a Zipf distribution, where the
+   * value at rank `k` (counting from 1) is chosen with probability
+   * proportional to `1 / k^skew`.
+   *
+   * @param <T> the type of the values
+   */
+  static final class ZipfChoice<T> {
+    private final T[] values;
+    // The cumulative probability of choosing each value or any before it.
+    private final double[] cumulative;
+
+    ZipfChoice(T[] values, double skew) {
+      this.values = values;
+      cumulative = new double[values.length];
+      double total = 0;
+      for (int i = 0; i < values.length; i++) {
+        total += 1 / Math.pow(i + 1, skew);
+        cumulative[i] = total;
+      }
+      for (int i = 0; i < values.length; i++) {
+        cumulative[i] /= total;
+      }
+    }
+
+    /**
+     * Choose a value.
+     *
+     * @param random the source of randomness
+     * @return the chosen value
+     */
+    T next(Random random) {
+      int index = Arrays.binarySearch(cumulative, random.nextDouble());
+      // A negative result encodes where the random number would be
+      // inserted, which is the first value whose cumulative probability is
+      // larger than it.
+      if (index < 0) {
+        index = -index - 1;
+      }
+      return values[Math.min(index, values.length - 1)];
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package umm3601;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Support for entity tags (ETags) and conditional `GET` requests.
+ *
+ * Every response we send gets an ETag that identifies exactly what was in
+ * it: it's built from the version of the data the response came from and
+ * the (canonical) query that picked out what to send. Clients that poll the
+ * same URL can send that ETag back in an `If-None-Match` header, and if
+ * neither the data nor the query has changed we just answer
+ * `304 Not Modified`, with no body, instead of sending the same response
+ * again.
+ * <p>
+ * The same response may be sent gzipped or not, depending on the client's
+ * `Accept-Encoding` (and, for small responses, on whether it's worth
+ * compressing), so our ETags are weak: they say two responses hold the
+ * same data, not that they're the same bytes. Responses that can be sent
+ * either way also carry `Vary: Accept-Encoding`.
+ */
+public final class ETags {
+
+  // How many bytes of the query's hash we put in the ETag. This is plenty
+  // to tell different queries apart, while keeping the ETag short.
+  private static final int HASH_BYTES = 16;
+
+  // Marks an ETag as weak.
+  private static final String WEAK_PREFIX = "W/";
+
+  private ETags() {
+  }
+
+  /**
+   * Create the (weak) ETag for a response.
+   *
+   * @param dataVersion    the version of the data the response comes from
+   * @param canonicalQuery the canonical form of the query (or ID) the response
+   *                       is for; different responses from the same data must
+   *                       have different canonical queries
+   * @return the ETag, including the `W/` prefix and the surrounding quotes
+   */
+  public static String of(long dataVersion, String canonicalQuery) {
+    byte[] hash;
+    try {
+      hash = MessageDigest.getInstance("SHA-256").digest(canonicalQuery.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+    String queryHash = Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, HASH_BYTES));
+    return WEAK_PREFIX + "\"" + Long.toHexString(dataVersion) + "-" + queryHash + "\"";
+  }
+
+  /**
+   * Add the given ETag to the response, and check whether the client
+   * already has the response it identifies. If it does, the response
+   * status is set to `304 Not Modified` and the caller shouldn't send a
+   * body.
+   *
+   * @param ctx  a Javalin HTTP context
+   * @param etag the ETag for the response we'd otherwise send
+   * @return true if the client already has the response
+   */
+  public static boolean notModified(Context ctx, String etag) {
+    ctx.header(Header.ETAG, etag);
+    String ifNoneMatch = ctx.header(Header.IF_NONE_MATCH);
+    if (ifNoneMatch != null && matches(ifNoneMatch, etag)) {
+      ctx.status(HttpStatus.NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Check whether an `If-None-Match` header matches an ETag. The header
+   * can hold a list of ETags, or `*` to match anything, and (as the HTTP
+   * spec requires for `If-None-Match`) ETags are compared without regard
+   * to whether they're weak.
+   *
+   * @param ifNoneMatch the value of the `If-None-Match` header
+   * @param etag        the ETag to check for
+   * @return true if the header matches the ETag
+   */
+  static boolean matches(String ifNoneMatch, String etag) {
+    String opaqueTag = opaqueTag(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || opaqueTag(candidate).equals(opaqueTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get an ETag without its `W/` prefix, if it has one.
+   *
+   * @param etag the ETag
+   * @return the quoted part of the ETag
+   */
+  private static String opaqueTag(String etag) {
+    return etag.startsWith(WEAK_PREFIX) ? etag.substring(WEAK_PREFIX.length()) : etag;
+  }
+}
@@ -0,0 +1,158 @@
+package umm3601;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.function.IntFunction;
+
+/**
+ * The `_id` of every record in a database, and an index from each ID to the
+ * position of its record.
+ * <p>
+ * A `HashMap<String, Integer>` from ID to position costs well over a
+ * hundred bytes per record (the entry, the boxed position, and the ID
+ * string itself). Here the IDs are kept as plain `long`s and `int`s (see
+ * `ObjectId`), in a hash table that's just an `int` array of positions,
+ * which comes to 20 to 28 bytes per record. Looking up an ID compares
+ * numbers, never strings.
+ * <p>
+ * The arrays are held in `java.nio` buffers, so that they can just as well
+ * be on the heap or mapped from a file.
+ */
+public final class IdIndex {
+
+  // The most IDs we can index, since the hash table has (up to four times)
+  // as many slots, in a single array.
+  private static final int MAX_SIZE = 1 << 29;
+
+  // Spreads the bits of each ID's hash code, so that IDs that differ only
+  // in their high bits (e.g., sequential counters) don't collide.
+  private static final int SPREAD = 0x9e3779b9;
+
+  // The first 8 and the last 4 bytes of the ID at each position.
+  private final LongBuffer highs;
+  private final IntBuffer lows;
+
+  // An open-addressing hash table of positions. Each slot holds a position
+  // plus one, or 0 if it's empty. There are at least twice as many slots as
+  // IDs (and always a power of two), so probe sequences stay short.
+  private final IntBuffer slots;
+
+  /**
+   * Build the index of the IDs of some records.
+   *
+   * @param size the number of records
+   * @param idAt the function that gets the ID of the record at a position
+   * @throws IllegalArgumentException if there are too many records to index
+   */
+  public IdIndex(int size, IntFunction<ObjectId> idAt) {
+    if (size > MAX_SIZE) {
+      throw new IllegalArgumentException("Too many IDs (" + size + ") to index");
+    }
+    highs = LongBuffer.allocate(size);
+    lows = IntBuffer.allocate(size);
+    slots = IntBuffer.allocate(Integer.highestOneBit(Math.max(size, 1) * 2 - 1) * 2);
+    for (int i = 0; i < size; i++) {
+      ObjectId id = idAt.apply(i);
+      highs.put(i, id.high());
+      lows.put(i, id.low());
+      // If the same ID turns up more than once, the first record wins.
+      int slot = find(id.high(), id.low());
+      if (slots.get(slot) == 0) {
+        slots.put(slot, i + 1);
+      }
+    }
+  }
+
+  /**
+   * Use an index that's already been built, e.g., one that's been written
+   * to a file and mapped back into memory.
+   *
+   * @param highs the first 8 bytes of the ID at each position
+   * @param lows  the last 4 bytes of the ID at each position
+   * @param slots the hash table of positions
+   */
+  public IdIndex(LongBuffer highs, IntBuffer lows, IntBuffer slots) {
+    this.highs = highs;
+    this.lows = lows;
+    this.slots = slots;
+  }
+
+  /**
+   * Find the slot holding the given ID, or the empty slot where it would
+   * go.
+   *
+   * @param high the first 8 bytes of the ID
+   * @param low  the last 4 bytes of the ID
+   * @return the slot
+   */
+  private int find(long high, int low) {
+    int mask = slots.limit() - 1;
+    int hash = ObjectId.hash(high, low) * SPREAD;
+    int slot = (hash ^ (hash >>> (Integer.SIZE / 2))) & mask;
+    while (slots.get(slot) != 0) {
+      int position = slots.get(slot) - 1;
+      if (highs.get(position) == high && lows.get(position) == low) {
+        break;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Get the number of records.
+   *
+   * @return the number of records
+   */
+  public int size() {
+    return lows.limit();
+  }
+
+  /**
+   * Get the position of the record with the given ID.
+   *
+   * @param id the ID to look for
+   * @return the position of the (first) record with that ID, or -1 if there
+   *         is no record with that ID
+   */
+  public int position(ObjectId id) {
+    return slots.get(find(id.high(), id.low())) - 1;
+  }
+
+  /**
+   * Get the ID of the record at the given position.
+   *
+   * @param position the position of the record
+   * @return its ID
+   */
+  public ObjectId id(int position) {
+    return new ObjectId(highs.get(position), lows.get(position));
+  }
+
+  /**
+   * Get the first 8 bytes of the ID at each position.
+   *
+   * @return a read-only view of the first 8 bytes of each ID
+   */
+  public LongBuffer highs() {
+    return highs.asReadOnlyBuffer();
+  }
+
+  /**
+   * Get the last 4 bytes of the ID at each position.
+   *
+   * @return a read-only view of the last 4 bytes of each ID
+   */
+  public IntBuffer lows() {
+    return lows.asReadOnlyBuffer();
+  }
+
+  /**
+   * Get the hash table of positions.
+   *
+   * @return a read-only view of the hash table
+   */
+  public IntBuffer slots() {
+    return slots.asReadOnlyBuffer();
+  }
+}
@@ -0,0 +1,147 @@
+package umm3601;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import io.javalin.http.Context;
+
+/**
+ * Support for writing (potentially very large) JSON arrays straight to the
+ * response, one element at a time.
+ *
+ * `ctx.json(array)` serializes the entire array into memory before any of it
+ * is sent, so a large result briefly needs a very large buffer. Here we
+ * instead write each element to the response's output stream as it is
+ * produced, so the memory we need doesn't grow with the size of the result.
+ *
+ * The elements are handed to us as already serialized (UTF-8) JSON, which
+ * the databases prepare once when they load their data, so all we have to
+ * do here is add the brackets and commas between them.
+ *
+ * We can also write the elements as "newline delimited JSON" (NDJSON, also
+ * known as JSON Lines), with one JSON object per line and no surrounding
+ * array. That's handy for bulk exports, since the client can also process
+ * the records one at a time as they arrive.
+ */
+public final class JsonStreaming {
+
+  /**
+   * The content type for (regular) JSON.
+   */
+  public static final String JSON_CONTENT_TYPE = "application/json";
+
+  /**
+   * The content type for newline delimited JSON.
+   */
+  public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+  // How many NDJSON records we write between flushes, so that the client
+  // gets records in reasonably sized chunks as we produce them.
+  private static final int RECORDS_PER_FLUSH = 1000;
+
+  // The size of the buffer we collect small writes in before handing them
+  // to the response's output stream.
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private JsonStreaming() {
+  }
+
+  /**
+   * Write a single, already serialized, JSON value as the response.
+   *
+   * @param ctx  a Javalin HTTP context
+   * @param json the (UTF-8) JSON to send
+   */
+  public static void writeValue(Context ctx, byte[] json) {
+    ctx.contentType(JSON_CONTENT_TYPE);
+    ctx.result(json);
+  }
+
+  /**
+   * Write a JSON array to `target`, with the (already serialized) elements
+   * supplied by `producer`. The producer is given an "action" that it
+   * should call once for each element, in order.
+   *
+   * @param target   the stream to write to, usually the response's output stream
+   * @param producer the code that produces the (UTF-8) JSON for each element
+   */
+  public static void writeArray(OutputStream target, Consumer<Consumer<byte[]>> producer) {
+    // We flush, but don't close, the output stream when we're done, since
+    // it belongs to Javalin.
+    OutputStream out = new BufferedOutputStream(target, BUFFER_SIZE);
+    try {
+      out.write('[');
+      boolean[] first = {true};
+      producer.accept(element -> {
+        try {
+          if (!first[0]) {
+            out.write(',');
+          }
+          first[0] = false;
+          out.write(element);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      out.write(']');
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Check whether the client asked for newline delimited JSON (via the
+   * `Accept` header) rather than a regular JSON array. Saying NDJSON has a
+   * quality value of zero means the client does *not* want it.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if the client accepts NDJSON
+   */
+  public static boolean wantsNdjson(Context ctx) {
+    String accept = ctx.header("Accept");
+    if (accept == null) {
+      return false;
+    }
+    for (String mediaRange : accept.split(",")) {
+      String[] parts = mediaRange.split(";");
+      if (parts[0].trim().equalsIgnoreCase(NDJSON_CONTENT_TYPE)) {
+        return !Compression.hasZeroQuality(parts);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Write newline delimited JSON to `target`, with the (already serialized)
+   * records supplied by `producer`, one per line. The producer is given an
+   * "action" that it should call once for each record, in order.
+   *
+   * @param target   the stream to write to, usually the response's output stream
+   * @param producer the code that produces the (UTF-8) JSON for each record
+   */
+  public static void writeLines(OutputStream target, Consumer<Consumer<byte[]>> producer) {
+    OutputStream out = new BufferedOutputStream(target, BUFFER_SIZE);
+    try {
+      int[] recordCount = new int[1];
+      producer.accept(record -> {
+        try {
+          out.write(record);
+          out.write('\n');
+          recordCount[0]++;
+          if (recordCount[0] % RECORDS_PER_FLUSH == 0) {
+            out.flush();
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -2,7 +2,9 @@ package umm3601;
 
 import java.io.IOException;
 
+import umm3601.metrics.MetricsController;
 import umm3601.todo.TodoController;
+import umm3601.todo.TodoDatabase;
 import umm3601.user.UserController;
 
 public class Main {
@@ -16,8 +18,9 @@ public class Main {
     // You'll add your own controllers in `getControllers` as you create them.
     final Controller[] controllers = Main.getControllers();
 
-    // Construct the server
-    Server server = new Server(controllers);
+    // Construct the server, with its port, thread pool, and connection
+    // settings taken from the environment (see `ServerConfig`).
+    Server server = new Server(controllers, ServerConfig.load());
 
     // Start the server
     server.startServer();
@@ -34,14 +37,42 @@ public class Main {
    * @throws IOException
    */
   static Controller[] getControllers() throws IOException {
+    UserController userController = UserController.buildUserController(setting("USER_DATA_FILE", USER_DATA_FILE));
+    TodoController todoController = TodoController.buildTodoController(setting("TODO_DATA_FILE", TODO_DATA_FILE),
+        TodoDatabase.Storage.named(setting("TODO_STORAGE", "objects")));
+
+    // The metrics controller reports on every request, and on how well
+    // the other controllers' response caches are doing.
+    MetricsController metricsController = new MetricsController();
+    metricsController.addResponseCache("users", userController.getResponseCache());
+    metricsController.addResponseCache("todos", todoController.getResponseCache());
+
     Controller[] controllers = new Controller[] {
       // You would add additional controllers here, as you create them,
       // although you need to make sure that each of your new controllers implements
       // the `Controller` interface.
-      UserController.buildUserController(USER_DATA_FILE),
-      TodoController.buildTodoController(TODO_DATA_FILE)
+      metricsController,
+      userController,
+      todoController
     };
     return controllers;
   }
 
+  /**
+   * Get the value of a setting from the named environment variable, or a
+   * default if it isn't set. The settings are `USER_DATA_FILE` and
+   * `TODO_DATA_FILE`, to load another data file (e.g., a large dataset made
+   * by `DatasetGenerator`) instead of the bundled one, and `TODO_STORAGE`,
+   * to store the todos another way (e.g., `columnar` or `mapped`; see
+   * `TodoDatabase.Storage`).
+   *
+   * @param variable     the environment variable to read
+   * @param defaultValue the value to use if it isn't set
+   * @return the value of the setting
+   */
+  static String setting(String variable, String defaultValue) {
+    String value = System.getenv(variable);
+    return value == null || value.isBlank() ? defaultValue : value;
+  }
+
 }
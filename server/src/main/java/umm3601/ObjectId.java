@@ -0,0 +1,206 @@
+package umm3601;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * A compact, immutable `_id`, like a MongoDB ObjectId: 12 bytes, written as
+ * 24 lower-case hex digits.
+ * <p>
+ * Holding the 12 bytes as a `long` and an `int` takes 24 bytes per ID,
+ * where the 24-character hex `String` (and its backing array) takes about
+ * 64, and comparing two IDs is just comparing two numbers. In JSON an
+ * `ObjectId` is still the same 24-digit hex string, so clients never see
+ * the difference.
+ */
+@JsonSerialize(using = ObjectId.Serializer.class)
+@JsonDeserialize(using = ObjectId.Deserializer.class)
+public final class ObjectId {
+
+  /**
+   * The number of hex digits in an ID.
+   */
+  public static final int LENGTH = 24;
+
+  // The number of hex digits held in `high`.
+  private static final int HIGH_LENGTH = 16;
+
+  private static final int BITS_PER_DIGIT = 4;
+  private static final int DIGIT_MASK = 0xf;
+  private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+  // The first 8 and the last 4 bytes of the ID.
+  private final long high;
+  private final int low;
+
+  /**
+   * Construct an ID from its 12 bytes.
+   *
+   * @param high the first 8 bytes of the ID
+   * @param low  the last 4 bytes of the ID
+   */
+  public ObjectId(long high, int low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * Parse an ID from its 24 (lower-case) hex digits.
+   *
+   * @param hex the hex digits of the ID
+   * @return the ID
+   * @throws IllegalArgumentException if `hex` isn't 24 lower-case hex digits
+   */
+  public static ObjectId parse(String hex) {
+    ObjectId id = tryParse(hex);
+    if (id == null) {
+      throw new IllegalArgumentException("'" + hex + "' is not a valid ID (24 lower-case hex digits)");
+    }
+    return id;
+  }
+
+  /**
+   * Parse an ID from its 24 (lower-case) hex digits, if it is one.
+   *
+   * @param hex the hex digits of the ID
+   * @return the ID, or `null` if `hex` isn't 24 lower-case hex digits (so it
+   *         can't be the ID of anything)
+   */
+  public static ObjectId tryParse(String hex) {
+    if (hex == null || hex.length() != LENGTH) {
+      return null;
+    }
+    long highBits = 0;
+    long lowBits = 0;
+    for (int i = 0; i < LENGTH; i++) {
+      int digit = digit(hex.charAt(i));
+      if (digit < 0) {
+        return null;
+      }
+      if (i < HIGH_LENGTH) {
+        highBits = (highBits << BITS_PER_DIGIT) | digit;
+      } else {
+        lowBits = (lowBits << BITS_PER_DIGIT) | digit;
+      }
+    }
+    return new ObjectId(highBits, (int) lowBits);
+  }
+
+  /**
+   * Get the value of a lower-case hex digit.
+   *
+   * @param c the digit
+   * @return its value, or -1 if it isn't a lower-case hex digit
+   */
+  private static int digit(char c) {
+    // `Character.digit()` also accepts upper-case and non-ASCII digits,
+    // which aren't the way any ID is written.
+    int digit = Character.digit(c, DIGITS.length);
+    return (digit >= 0 && DIGITS[digit] == c) ? digit : -1;
+  }
+
+  /**
+   * Get the first 8 bytes of the ID.
+   *
+   * @return the first 8 bytes, as a `long`
+   */
+  public long high() {
+    return high;
+  }
+
+  /**
+   * Get the last 4 bytes of the ID.
+   *
+   * @return the last 4 bytes, as an `int`
+   */
+  public int low() {
+    return low;
+  }
+
+  /**
+   * Get the 24 hex digits of the ID.
+   *
+   * @return the hex digits
+   */
+  private char[] hexDigits() {
+    char[] hex = new char[LENGTH];
+    for (int i = 0; i < HIGH_LENGTH; i++) {
+      hex[i] = DIGITS[(int) (high >>> ((HIGH_LENGTH - 1 - i) * BITS_PER_DIGIT)) & DIGIT_MASK];
+    }
+    for (int i = HIGH_LENGTH; i < LENGTH; i++) {
+      hex[i] = DIGITS[(low >>> ((LENGTH - 1 - i) * BITS_PER_DIGIT)) & DIGIT_MASK];
+    }
+    return hex;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof ObjectId id && id.high == high && id.low == low;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash(high, low);
+  }
+
+  /**
+   * Get the hash code of the ID with the given bytes, without having to
+   * make an `ObjectId`.
+   *
+   * @param highBytes the first 8 bytes of the ID
+   * @param lowBytes  the last 4 bytes of the ID
+   * @return the hash code of the ID
+   */
+  public static int hash(long highBytes, int lowBytes) {
+    return Long.hashCode(highBytes) ^ lowBytes;
+  }
+
+  @Override
+  public String toString() {
+    return new String(hexDigits());
+  }
+
+  /**
+   * Writes an `ObjectId` as its 24 hex digits.
+   */
+  public static final class Serializer extends StdSerializer<ObjectId> {
+
+    public Serializer() {
+      super(ObjectId.class);
+    }
+
+    @Override
+    public void serialize(ObjectId id, JsonGenerator generator, SerializerProvider provider) throws IOException {
+      generator.writeString(id.hexDigits(), 0, LENGTH);
+    }
+  }
+
+  /**
+   * Reads an `ObjectId` from its 24 hex digits.
+   */
+  public static final class Deserializer extends StdDeserializer<ObjectId> {
+
+    public Deserializer() {
+      super(ObjectId.class);
+    }
+
+    @Override
+    public ObjectId deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+      String hex = parser.getValueAsString();
+      ObjectId id = tryParse(hex);
+      if (id == null) {
+        return (ObjectId) context.handleWeirdStringValue(ObjectId.class, hex,
+            "not a valid ID (24 lower-case hex digits)");
+      }
+      return id;
+    }
+  }
+}
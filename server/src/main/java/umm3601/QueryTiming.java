@@ -0,0 +1,228 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import io.javalin.http.Context;
+
+/**
+ * An optional breakdown of how long each stage of a query (e.g., each
+ * filter) took, and how many records went into and came out of it.
+ * <p>
+ * Timing is only turned on for requests that ask for it, with a
+ * `debug=timing` query parameter or an `X-Debug: timing` header. The
+ * breakdown is sent back in a `Server-Timing` header (which browsers'
+ * developer tools know how to show), and is also added to the metrics.
+ * For every other request we use `DISABLED`, which records nothing and
+ * costs next to nothing.
+ */
+public final class QueryTiming {
+
+  /**
+   * A `QueryTiming` that doesn't record anything.
+   */
+  public static final QueryTiming DISABLED = new QueryTiming(false);
+
+  /**
+   * The name of the response header the breakdown is sent in.
+   */
+  public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+  /**
+   * The name of the request header that can turn on timing.
+   */
+  public static final String DEBUG_HEADER = "X-Debug";
+
+  /**
+   * The name of the request attribute we keep the request's `QueryTiming`
+   * in, so that the metrics can pick it up once the request is done.
+   */
+  public static final String ATTRIBUTE = "queryTiming";
+
+  // The value of the `debug` query parameter (or `X-Debug` header) that
+  // turns on timing.
+  private static final String TIMING = "timing";
+
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final boolean enabled;
+  private final List<Stage> stages = new ArrayList<>();
+
+  private QueryTiming(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Get the `QueryTiming` for a request: a new, enabled one if the request
+   * asked for timing, or `DISABLED` if it didn't. An enabled one is also
+   * stored in the request's attributes for the metrics to find.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the `QueryTiming` for the request
+   */
+  public static QueryTiming forRequest(Context ctx) {
+    if (!TIMING.equals(ctx.queryParam("debug")) && !TIMING.equals(ctx.header(DEBUG_HEADER))) {
+      return DISABLED;
+    }
+    QueryTiming timing = new QueryTiming(true);
+    ctx.attribute(ATTRIBUTE, timing);
+    return timing;
+  }
+
+  /**
+   * Check whether this is recording timings.
+   *
+   * @return true if this is recording timings
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Get the time at which a stage starts.
+   *
+   * @return the current time, from `System.nanoTime()`, or 0 if timing is disabled
+   */
+  public long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Count the records in a set of matches, if we're recording timings.
+   * Counting isn't free, so we don't do it otherwise.
+   *
+   * @param matches the positions of the matching records
+   * @return the number of matching records, or 0 if timing is disabled
+   */
+  public int count(BitSet matches) {
+    return enabled ? matches.cardinality() : 0;
+  }
+
+  /**
+   * Record a stage that has just finished.
+   *
+   * @param name       the name of the stage (e.g., "status")
+   * @param startNanos the time the stage started, from `start()`
+   * @param in         the number of records that went into the stage
+   * @param out        the number of records that came out of the stage
+   */
+  public void record(String name, long startNanos, int in, int out) {
+    if (enabled) {
+      stages.add(new Stage(name, System.nanoTime() - startNanos, in, out));
+    }
+  }
+
+  /**
+   * Record a stage that has just finished, whose output is a set of
+   * matches. The matches are only counted after the clock is stopped, so
+   * counting them isn't included in the stage's time.
+   *
+   * @param name       the name of the stage (e.g., "status")
+   * @param startNanos the time the stage started, from `start()`
+   * @param in         the number of records that went into the stage
+   * @param out        the positions of the records that came out of the stage
+   */
+  public void record(String name, long startNanos, int in, BitSet out) {
+    if (enabled) {
+      long nanos = System.nanoTime() - startNanos;
+      stages.add(new Stage(name, nanos, in, out.cardinality()));
+    }
+  }
+
+  /**
+   * Get the stages recorded so far, in the order they started.
+   *
+   * @return the stages
+   */
+  public List<Stage> stages() {
+    return Collections.unmodifiableList(stages);
+  }
+
+  /**
+   * Get the stages, formatted for a `Server-Timing` header, e.g.,
+   * `status;dur=0.012;desc="200 in, 143 out"`.
+   *
+   * @return the value for the `Server-Timing` header
+   */
+  public String serverTiming() {
+    StringBuilder header = new StringBuilder();
+    for (Stage stage : stages) {
+      if (header.length() > 0) {
+        header.append(", ");
+      }
+      header.append(stage.name())
+          .append(";dur=").append(String.format(Locale.ROOT, "%.3f", stage.nanos() / NANOS_PER_MILLI))
+          .append(";desc=\"").append(stage.in()).append(" in, ").append(stage.out()).append(" out\"");
+    }
+    return header.toString();
+  }
+
+  /**
+   * Add the stages to the response in a `Server-Timing` header, if we're
+   * recording timings.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addHeader(Context ctx) {
+    if (enabled && !stages.isEmpty()) {
+      ctx.header(SERVER_TIMING_HEADER, serverTiming());
+    }
+  }
+
+  /**
+   * A single stage of a query.
+   */
+  public static final class Stage {
+    private final String name;
+    private long nanos;
+    private int in;
+    private int out;
+
+    private Stage(String name, long nanos, int in, int out) {
+      this.name = name;
+      this.nanos = nanos;
+      this.in = in;
+      this.out = out;
+    }
+
+    /**
+     * Get the name of the stage.
+     *
+     * @return the name of the stage
+     */
+    public String name() {
+      return name;
+    }
+
+    /**
+     * Get how long the stage took.
+     *
+     * @return the time the stage took, in nanoseconds
+     */
+    public long nanos() {
+      return nanos;
+    }
+
+    /**
+     * Get the number of records that went into the stage.
+     *
+     * @return the number of records in
+     */
+    public int in() {
+      return in;
+    }
+
+    /**
+     * Get the number of records that came out of the stage.
+     *
+     * @return the number of records out
+     */
+    public int out() {
+      return out;
+    }
+  }
+}
@@ -0,0 +1,450 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.javalin.http.Context;
+
+/**
+ * A bounded cache of complete (serialized) responses, keyed by a canonical
+ * form of the request's query parameters.
+ * <p>
+ * Our data never changes once it's loaded, and most requests use one of a
+ * fairly small number of different queries, so we can keep the final bytes
+ * for popular queries and send them again without filtering or serializing
+ * anything.
+ * <p>
+ * The cache is bounded by the total size (in bytes) of the responses it
+ * holds, and uses a "segmented LRU" eviction policy. New responses go into a
+ * small "probationary" segment, and are only promoted to the larger
+ * "protected" segment if they're requested again. That way a burst of
+ * one-off queries can only push other one-off queries out of the cache, and
+ * not the popular queries in the protected segment.
+ * <p>
+ * Looking a response up never takes a lock, since every request for a list
+ * does it. Only adding a response and promoting one to the protected
+ * segment take the (separate) eviction lock, and each response is only
+ * ever promoted once. Rather than moving a protected response to the back
+ * of its segment on every hit, which would need the lock, a hit just marks
+ * it as referenced, and a referenced response gets a second chance (and
+ * goes to the back of the segment) instead of being demoted. That's the
+ * usual "clock" approximation of least recently used.
+ */
+public class ResponseCache {
+
+  // The share (in percent) of the cache's capacity that the protected
+  // segment may use; the probationary segment gets the rest.
+  private static final int PROTECTED_PERCENT = 80;
+  private static final int PERCENT = 100;
+
+  // The largest response (in bytes) we'll cache. Every response that might
+  // be cached is copied as it's streamed to the client, so this also bounds
+  // the extra memory each request in flight can use; anything larger stops
+  // being copied as soon as it gets past this size. Popular queries are
+  // mostly for filtered or paged lists, which are well under this.
+  private static final long MAX_ENTRY_BYTES = 256L * 1024;
+
+  // We separate the parts of a cache key with characters that can't
+  // appear in a (decoded) query string, so different queries can't
+  // accidentally end up with the same key.
+  private static final char KEY_SEPARATOR = '\u0000';
+  private static final char VALUE_SEPARATOR = '\u0001';
+
+  private final long protectedCapacity;
+  private final long probationCapacity;
+
+  // Every cached response, from either segment, for looking them up
+  // without a lock.
+  private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<>();
+
+  // Guards the segments and their sizes (and changes to `nodes`).
+  private final Object evictionLock = new Object();
+
+  // Both segments are kept in the order their responses went into them,
+  // so the first entry is always the next one to evict (or demote, unless
+  // it's been referenced since).
+  private final LinkedHashMap<String, Node> probation = new LinkedHashMap<>();
+  private final LinkedHashMap<String, Node> protectedSegment = new LinkedHashMap<>();
+  private long probationSize;
+  private long protectedSize;
+
+  // The total size of both segments, so it can be read without the lock.
+  private volatile long size;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Construct a response cache.
+   *
+   * @param capacity the maximum total size, in bytes, of the cached responses
+   */
+  public ResponseCache(long capacity) {
+    this.protectedCapacity = capacity * PROTECTED_PERCENT / PERCENT;
+    this.probationCapacity = capacity - protectedCapacity;
+  }
+
+  /**
+   * Build the canonical cache key for a request.
+   * <p>
+   * Only the parameters in `params` are included (so, e.g., a cache-busting
+   * parameter that the database ignores anyway doesn't stop us from finding
+   * a cached response), and they're included in alphabetical order so the
+   * order they appear in the query string doesn't matter. Just like the
+   * databases, we only look at the first value of each parameter. Values
+   * of the parameters in `caseInsensitiveParams` are lower-cased, since
+   * they're compared without regard to case.
+   *
+   * @param variant               which variant of the response this is
+   *                              (e.g., its content type)
+   * @param queryParams           the request's query parameters
+   * @param params                the names of the parameters that affect the response
+   * @param caseInsensitiveParams the names of the parameters whose values are
+   *                              compared without regard to case
+   * @return the cache key
+   */
+  public static String key(String variant, Map<String, List<String>> queryParams,
+      Set<String> params, Set<String> caseInsensitiveParams) {
+    StringBuilder key = new StringBuilder(variant);
+    for (Map.Entry<String, List<String>> param : new TreeMap<>(queryParams).entrySet()) {
+      String name = param.getKey();
+      if (!params.contains(name) || param.getValue().isEmpty()) {
+        continue;
+      }
+      String value = param.getValue().get(0);
+      if (caseInsensitiveParams.contains(name)) {
+        value = value.toLowerCase();
+      }
+      key.append(KEY_SEPARATOR).append(name).append(VALUE_SEPARATOR).append(value);
+    }
+    return key.toString();
+  }
+
+  /**
+   * Get the cached response for the given key, if there is one.
+   *
+   * @param key the cache key
+   * @return the cached response, or `null` if it isn't in the cache
+   */
+  public Entry get(String key) {
+    Node node = nodes.get(key);
+    if (node == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    if (node.isProtected) {
+      node.referenced = true;
+    } else {
+      promote(key, node);
+    }
+    return node.entry;
+  }
+
+  /**
+   * Add a response to the cache. Responses larger than `maxEntrySize()`
+   * are never cached.
+   *
+   * @param key   the cache key
+   * @param entry the response to cache
+   */
+  public void put(String key, Entry entry) {
+    if (entry.weight() > maxEntrySize()) {
+      return;
+    }
+    synchronized (evictionLock) {
+      if (protectedSegment.containsKey(key)) {
+        return;
+      }
+      Node node = new Node(entry);
+      Node previous = probation.put(key, node);
+      if (previous != null) {
+        probationSize -= previous.entry.weight();
+      }
+      nodes.put(key, node);
+      probationSize += entry.weight();
+      evictFromProbation();
+      size = probationSize + protectedSize;
+    }
+  }
+
+  /**
+   * Get the largest response, in bytes, that will be cached.
+   *
+   * @return the largest response that will be cached
+   */
+  public long maxEntrySize() {
+    return Math.min(MAX_ENTRY_BYTES, probationCapacity);
+  }
+
+  /**
+   * Get the number of times `get()` has found a cached response.
+   *
+   * @return the number of cache hits
+   */
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of times `get()` has not found a cached response.
+   *
+   * @return the number of cache misses
+   */
+  public long missCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Get the total size, in bytes, of the cached responses.
+   *
+   * @return the total size of the cached responses
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Move a probationary response, which has now been asked for more than
+   * once, to the protected segment.
+   *
+   * @param key  the cache key
+   * @param node the probationary response
+   */
+  private void promote(String key, Node node) {
+    synchronized (evictionLock) {
+      // Another request may have promoted (or evicted) it in the meantime.
+      if (probation.get(key) != node) {
+        return;
+      }
+      probation.remove(key);
+      probationSize -= node.entry.weight();
+      node.isProtected = true;
+      protectedSegment.put(key, node);
+      protectedSize += node.entry.weight();
+      demoteFromProtected();
+      evictFromProbation();
+      size = probationSize + protectedSize;
+    }
+  }
+
+  /**
+   * Move the oldest unreferenced protected responses back to the
+   * probationary segment until the protected segment is within its
+   * capacity. Referenced responses go to the back of the segment instead,
+   * and lose their mark, but each only gets one second chance per call so
+   * that hits happening at the same time can't keep us here forever. Must
+   * be called holding `evictionLock`.
+   */
+  private void demoteFromProtected() {
+    int secondChances = protectedSegment.size();
+    while (protectedSize > protectedCapacity) {
+      Iterator<Map.Entry<String, Node>> eldest = protectedSegment.entrySet().iterator();
+      Map.Entry<String, Node> oldest = eldest.next();
+      eldest.remove();
+      Node node = oldest.getValue();
+      if (node.referenced && secondChances-- > 0) {
+        node.referenced = false;
+        protectedSegment.put(oldest.getKey(), node);
+      } else {
+        protectedSize -= node.entry.weight();
+        node.isProtected = false;
+        probation.put(oldest.getKey(), node);
+        probationSize += node.entry.weight();
+      }
+    }
+  }
+
+  /**
+   * Evict the oldest probationary responses until the probationary segment
+   * is within its capacity. Must be called holding `evictionLock`.
+   */
+  private void evictFromProbation() {
+    Iterator<Map.Entry<String, Node>> eldest = probation.entrySet().iterator();
+    while (probationSize > probationCapacity && eldest.hasNext()) {
+      Map.Entry<String, Node> evicted = eldest.next();
+      eldest.remove();
+      nodes.remove(evicted.getKey(), evicted.getValue());
+      probationSize -= evicted.getValue().entry.weight();
+    }
+  }
+
+  /**
+   * A cached response, along with which segment it's in and whether it's
+   * been asked for since it was last considered for demotion.
+   */
+  private static final class Node {
+    private final Entry entry;
+    private volatile boolean isProtected;
+    private volatile boolean referenced;
+
+    /**
+     * Construct a node for a newly cached (and so probationary) response.
+     *
+     * @param entry the cached response
+     */
+    private Node(Entry entry) {
+      this.entry = entry;
+    }
+  }
+
+  /**
+   * A cached response: its body, content type, and any extra headers that
+   * have to be sent with it.
+   */
+  public static final class Entry {
+    private final byte[] body;
+    private final String contentType;
+    private final Map<String, String> headers;
+
+    // The gzipped body, which we make (once) before the response is cached,
+    // so that its size counts against the cache's capacity and no request
+    // ever has to wait for another to finish compressing it. It's `null` if
+    // the body isn't worth compressing.
+    private final byte[] gzippedBody;
+
+    /**
+     * Construct a cached response, compressing its body.
+     *
+     * @param body        the (serialized) response body
+     * @param contentType the content type of the body
+     * @param headers     any extra headers to send with the body
+     */
+    public Entry(byte[] body, String contentType, Map<String, String> headers) {
+      this.body = body;
+      this.contentType = contentType;
+      this.headers = Collections.unmodifiableMap(headers);
+      this.gzippedBody = Compression.gzip(body);
+    }
+
+    /**
+     * Get the response body.
+     *
+     * @return the response body
+     */
+    public byte[] body() {
+      return body;
+    }
+
+    /**
+     * Get the content type of the response body.
+     *
+     * @return the content type
+     */
+    public String contentType() {
+      return contentType;
+    }
+
+    /**
+     * Get the extra headers to send with the response.
+     *
+     * @return the extra headers
+     */
+    public Map<String, String> headers() {
+      return headers;
+    }
+
+    /**
+     * Get the gzipped response body.
+     *
+     * @return the gzipped body, or `null` if it isn't worth compressing
+     */
+    public byte[] gzippedBody() {
+      return gzippedBody;
+    }
+
+    /**
+     * Send this cached response to the client, gzipped if the client
+     * accepts that and the body is worth compressing.
+     *
+     * @param ctx        a Javalin HTTP context
+     * @param acceptGzip whether the client accepts gzipped responses
+     */
+    public void writeTo(Context ctx, boolean acceptGzip) {
+      headers.forEach(ctx::header);
+      ctx.contentType(contentType);
+      byte[] gzipped = acceptGzip ? gzippedBody : null;
+      if (gzipped != null) {
+        Compression.writeGzipped(ctx, gzipped);
+      } else {
+        ctx.result(body);
+      }
+    }
+
+    private long weight() {
+      return body.length + (gzippedBody == null ? 0 : gzippedBody.length);
+    }
+  }
+
+  /**
+   * An output stream that passes everything written to it on to another
+   * stream, while also keeping a copy (as long as it stays small enough to
+   * cache), so we can stream a response to the client and cache it at the
+   * same time.
+   */
+  public static final class Capture extends OutputStream {
+    private final OutputStream target;
+    private final long limit;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    /**
+     * Construct a capturing output stream.
+     *
+     * @param target the stream to pass everything on to
+     * @param limit  the most bytes to keep a copy of
+     */
+    public Capture(OutputStream target, long limit) {
+      this.target = target;
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      target.write(b);
+      if (copy != null) {
+        copy.write(b);
+        checkLimit();
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      target.write(b, off, len);
+      if (copy != null) {
+        copy.write(b, off, len);
+        checkLimit();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target.flush();
+    }
+
+    /**
+     * Get a copy of everything written to this stream.
+     *
+     * @return the bytes written, or `null` if there were too many to keep
+     */
+    public byte[] captured() {
+      return copy == null ? null : copy.toByteArray();
+    }
+
+    private void checkLimit() {
+      if (copy.size() > limit) {
+        copy = null;
+      }
+    }
+  }
+}
@@ -6,16 +6,22 @@ import io.javalin.Javalin;
 import io.javalin.http.InternalServerErrorResponse;
 import io.javalin.http.staticfiles.Location;
 import io.javalin.plugin.bundled.RouteOverviewPlugin;
+import org.eclipse.jetty.server.ConnectionLimit;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 public class Server {
 
-  private static final int SERVER_PORT = 4567;
   public static final String CLIENT_DIRECTORY = "../client";
 
   // The `controllers` field is an array of all the `Controller` implementations
   // for the server. This is used to add routes to the server.
   private Controller[] controllers;
 
+  // The port, thread pool, and connection settings for the server.
+  private ServerConfig serverConfig;
+
   /**
    * Construct a `Server` object that we'll use (via `startServer()`) to configure
    * and start the server.
@@ -23,12 +29,24 @@ public class Server {
    * @param controllers The implementations of `Controller` used for this server
    */
   public Server(Controller[] controllers) {
+    this(controllers, ServerConfig.defaults());
+  }
+
+  /**
+   * Construct a `Server` object that we'll use (via `startServer()`) to configure
+   * and start the server, with the given port, thread pool, and connection settings.
+   *
+   * @param controllers  The implementations of `Controller` used for this server
+   * @param serverConfig The settings for the server
+   */
+  public Server(Controller[] controllers, ServerConfig serverConfig) {
     // This is what is known as a "defensive copy". We make a copy of
     // the array so that if the caller modifies the array after passing
     // it in, we don't have to worry about it. If we didn't do this,
     // the caller could modify the array after passing it in, and then
     // we'd be using the modified array without realizing it.
     this.controllers = Arrays.copyOf(controllers, controllers.length);
+    this.serverConfig = serverConfig;
   }
 
   /**
@@ -37,11 +55,14 @@ public class Server {
    * This configures and starts the Javalin server, which will start listening for HTTP requests.
    * It also sets up the server to shut down gracefully if it's killed or if the
    * JVM is shut down.
+   *
+   * @return The running Javalin server instance, so that it can be stopped
    */
-  void startServer() {
+  Javalin startServer() {
     Javalin javalin = configureJavalin();
     setupRoutes(javalin);
-    javalin.start(SERVER_PORT);
+    // The port is set on the connector we give Jetty in `configureJavalin()`.
+    return javalin.start();
   }
 
   /**
@@ -53,6 +74,8 @@ public class Server {
    *   JVM is shut down.
    * - Setting up a handler for uncaught exceptions to return an HTTP 500
    *   error.
+   * - Sizing Jetty's thread pool, request queue, and connector according
+   *   to the server's configuration.
    *
    * @return The Javalin server instance
    */
@@ -79,6 +102,9 @@ public class Server {
       // routes/endpoints that we add below on a page reachable
       // via the "/api" path.
       config.plugins.register(new RouteOverviewPlugin("/api"));
+      // This gives Javalin a Jetty server built to our configuration,
+      // rather than one with Jetty's defaults.
+      config.jetty.server(this::buildJettyServer);
     });
 
     // This catches any uncaught exceptions thrown in the server
@@ -97,6 +123,38 @@ public class Server {
     return server;
   }
 
+  /**
+   * Build the Jetty server that Javalin runs on, with its thread pool and
+   * connector set up according to the server's configuration.
+   *
+   * @return The Jetty server
+   */
+  private org.eclipse.jetty.server.Server buildJettyServer() {
+    // Requests wait in a bounded queue for a free thread, so that when
+    // we're overloaded we turn new requests away instead of queueing
+    // them until we run out of memory.
+    QueuedThreadPool threadPool = new QueuedThreadPool(serverConfig.getMaxThreads(), serverConfig.getMinThreads(),
+        serverConfig.getThreadIdleTimeoutMillis(), new BlockingArrayQueue<>(serverConfig.getMaxQueuedRequests()));
+    threadPool.setName("JettyServerThreadPool");
+    // Jetty's thread pool can start a new virtual thread for each task
+    // instead of handing it to one of its platform threads. (Jetty still
+    // uses platform threads for its own housekeeping, like accepting
+    // connections.)
+    threadPool.setUseVirtualThreads(serverConfig.useVirtualThreads());
+
+    org.eclipse.jetty.server.Server jettyServer = new org.eclipse.jetty.server.Server(threadPool);
+    ServerConnector connector =
+        new ServerConnector(jettyServer, serverConfig.getAcceptors(), serverConfig.getSelectors());
+    connector.setPort(serverConfig.getPort());
+    connector.setIdleTimeout(serverConfig.getConnectionIdleTimeoutMillis());
+    connector.setAcceptQueueSize(serverConfig.getAcceptQueueSize());
+    jettyServer.addConnector(connector);
+    if (serverConfig.getMaxConnections() > 0) {
+      jettyServer.addBean(new ConnectionLimit(serverConfig.getMaxConnections(), jettyServer));
+    }
+    return jettyServer;
+  }
+
   /**
    * Setup routes for the server.
    *
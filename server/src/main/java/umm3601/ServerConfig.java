@@ -0,0 +1,290 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+
+/**
+ * The settings used to size and tune the server: its port, the Jetty thread
+ * pool and request queue, and its connectors.
+ * <p>
+ * Settings are read from an (optional) properties file, named by the
+ * `SERVER_CONFIG` environment variable, and any of them can be overridden
+ * by an environment variable with the same name in upper case, with the
+ * dots and dashes replaced by underscores (e.g., `SERVER_MAX_THREADS`
+ * overrides `server.max-threads`). The settings are:
+ *
+ * - `server.port` - the port to listen on (4567)
+ * - `server.virtual-threads` - whether to run request handlers on virtual
+ *   threads (false)
+ * - `server.min-threads`, `server.max-threads` - the smallest and largest
+ *   the thread pool can be (8 and 200)
+ * - `server.thread-idle-timeout-ms` - how long an idle pool thread is kept
+ *   before it's stopped (60000)
+ * - `server.max-queued-requests` - how many requests can wait for a free
+ *   thread; once the queue is full, new requests are turned away rather
+ *   than queued without limit (1000)
+ * - `server.acceptors`, `server.selectors` - the number of acceptor and
+ *   selector threads for the connector (-1, letting Jetty choose)
+ * - `server.accept-queue-size` - the backlog of connections waiting to be
+ *   accepted (0, using the operating system's default)
+ * - `server.connection-idle-timeout-ms` - how long an idle connection is
+ *   kept open (30000)
+ * - `server.max-connections` - the most connections to have open at once
+ *   (0, meaning no limit)
+ */
+public final class ServerConfig {
+
+  /**
+   * The environment variable that names the properties file to read
+   * settings from.
+   */
+  public static final String CONFIG_FILE_VARIABLE = "SERVER_CONFIG";
+
+  // The defaults for each setting.
+  private static final int DEFAULT_PORT = 4567;
+  private static final int DEFAULT_MIN_THREADS = 8;
+  private static final int DEFAULT_MAX_THREADS = 200;
+  private static final int DEFAULT_THREAD_IDLE_TIMEOUT_MS = 60_000;
+  private static final int DEFAULT_MAX_QUEUED_REQUESTS = 1000;
+  private static final int DEFAULT_CONNECTION_IDLE_TIMEOUT_MS = 30_000;
+  private static final int MAX_PORT = 65_535;
+
+  // The value Jetty takes to mean "choose a sensible number for me" for
+  // the number of acceptor and selector threads.
+  private static final int JETTY_DEFAULT = -1;
+
+  private final int port;
+  private final boolean useVirtualThreads;
+  private final int minThreads;
+  private final int maxThreads;
+  private final int threadIdleTimeoutMillis;
+  private final int maxQueuedRequests;
+  private final int acceptors;
+  private final int selectors;
+  private final int acceptQueueSize;
+  private final int connectionIdleTimeoutMillis;
+  private final int maxConnections;
+
+  /**
+   * Construct a server configuration from the given settings. Any setting
+   * that isn't given gets its default value.
+   *
+   * @param settings a function that gets the value of a setting (e.g.,
+   *                 `server.port`), or `null` if it isn't set
+   * @throws IllegalArgumentException if any of the settings has an invalid value
+   */
+  public ServerConfig(Function<String, String> settings) {
+    port = intSetting(settings, "server.port", DEFAULT_PORT, 0, MAX_PORT);
+    useVirtualThreads = booleanSetting(settings, "server.virtual-threads", false);
+    minThreads = intSetting(settings, "server.min-threads", DEFAULT_MIN_THREADS, 1, Integer.MAX_VALUE);
+    maxThreads = intSetting(settings, "server.max-threads",
+        Math.max(DEFAULT_MAX_THREADS, minThreads), minThreads, Integer.MAX_VALUE);
+    threadIdleTimeoutMillis = intSetting(settings, "server.thread-idle-timeout-ms",
+        DEFAULT_THREAD_IDLE_TIMEOUT_MS, 1, Integer.MAX_VALUE);
+    maxQueuedRequests = intSetting(settings, "server.max-queued-requests",
+        DEFAULT_MAX_QUEUED_REQUESTS, 1, Integer.MAX_VALUE);
+    acceptors = intSetting(settings, "server.acceptors", JETTY_DEFAULT, JETTY_DEFAULT, Integer.MAX_VALUE);
+    selectors = intSetting(settings, "server.selectors", JETTY_DEFAULT, JETTY_DEFAULT, Integer.MAX_VALUE);
+    acceptQueueSize = intSetting(settings, "server.accept-queue-size", 0, 0, Integer.MAX_VALUE);
+    connectionIdleTimeoutMillis = intSetting(settings, "server.connection-idle-timeout-ms",
+        DEFAULT_CONNECTION_IDLE_TIMEOUT_MS, 1, Integer.MAX_VALUE);
+    maxConnections = intSetting(settings, "server.max-connections", 0, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Get a server configuration with all the default settings.
+   *
+   * @return the default server configuration
+   */
+  public static ServerConfig defaults() {
+    return new ServerConfig(setting -> null);
+  }
+
+  /**
+   * Load the server configuration from the properties file named by the
+   * `SERVER_CONFIG` environment variable (if there is one), overridden by
+   * any matching environment variables.
+   *
+   * @return the server configuration
+   * @throws IOException if the properties file can't be read
+   * @throws IllegalArgumentException if any of the settings has an invalid value
+   */
+  public static ServerConfig load() throws IOException {
+    Map<String, String> environment = System.getenv();
+    Properties properties = new Properties();
+    String configFile = environment.get(CONFIG_FILE_VARIABLE);
+    if (configFile != null) {
+      try (Reader reader = Files.newBufferedReader(Path.of(configFile))) {
+        properties.load(reader);
+      }
+    }
+    return new ServerConfig(setting -> environment.getOrDefault(environmentVariable(setting),
+        properties.getProperty(setting)));
+  }
+
+  /**
+   * Get the name of the environment variable that overrides a setting.
+   *
+   * @param setting the name of the setting, e.g., `server.max-threads`
+   * @return the name of the environment variable, e.g., `SERVER_MAX_THREADS`
+   */
+  static String environmentVariable(String setting) {
+    return setting.toUpperCase().replace('.', '_').replace('-', '_');
+  }
+
+  /**
+   * Get the value of an integer setting, checking that it's in range.
+   *
+   * @param settings     a function that gets the value of a setting
+   * @param setting      the name of the setting
+   * @param defaultValue the value to use if the setting isn't set
+   * @param min          the smallest allowed value
+   * @param max          the largest allowed value
+   * @return the value of the setting
+   */
+  private static int intSetting(Function<String, String> settings, String setting,
+      int defaultValue, int min, int max) {
+    String value = settings.apply(setting);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    try {
+      int parsed = Integer.parseInt(value.trim());
+      if (parsed >= min && parsed <= max) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through to the error below
+    }
+    throw new IllegalArgumentException("Setting '" + setting + "' must be an integer from "
+        + min + " to " + max + ", but was '" + value + "'");
+  }
+
+  /**
+   * Get the value of a boolean setting.
+   *
+   * @param settings     a function that gets the value of a setting
+   * @param setting      the name of the setting
+   * @param defaultValue the value to use if the setting isn't set
+   * @return the value of the setting
+   */
+  private static boolean booleanSetting(Function<String, String> settings, String setting, boolean defaultValue) {
+    String value = settings.apply(setting);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    switch (value.trim().toLowerCase()) {
+      case "true":
+        return true;
+      case "false":
+        return false;
+      default:
+        throw new IllegalArgumentException("Setting '" + setting + "' must be true or false, but was '"
+            + value + "'");
+    }
+  }
+
+  /**
+   * Get the port to listen on.
+   *
+   * @return the port
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Get whether request handlers should run on virtual threads.
+   *
+   * @return true if request handlers should run on virtual threads
+   */
+  public boolean useVirtualThreads() {
+    return useVirtualThreads;
+  }
+
+  /**
+   * Get the fewest threads the thread pool keeps around.
+   *
+   * @return the minimum number of threads
+   */
+  public int getMinThreads() {
+    return minThreads;
+  }
+
+  /**
+   * Get the most threads the thread pool can have.
+   *
+   * @return the maximum number of threads
+   */
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  /**
+   * Get how long an idle pool thread is kept before it's stopped.
+   *
+   * @return the thread idle timeout, in milliseconds
+   */
+  public int getThreadIdleTimeoutMillis() {
+    return threadIdleTimeoutMillis;
+  }
+
+  /**
+   * Get how many requests can wait for a free thread.
+   *
+   * @return the maximum number of queued requests
+   */
+  public int getMaxQueuedRequests() {
+    return maxQueuedRequests;
+  }
+
+  /**
+   * Get the number of acceptor threads for the connector.
+   *
+   * @return the number of acceptor threads, or -1 to let Jetty choose
+   */
+  public int getAcceptors() {
+    return acceptors;
+  }
+
+  /**
+   * Get the number of selector threads for the connector.
+   *
+   * @return the number of selector threads, or -1 to let Jetty choose
+   */
+  public int getSelectors() {
+    return selectors;
+  }
+
+  /**
+   * Get the backlog of connections waiting to be accepted.
+   *
+   * @return the accept queue size, or 0 for the operating system's default
+   */
+  public int getAcceptQueueSize() {
+    return acceptQueueSize;
+  }
+
+  /**
+   * Get how long an idle connection is kept open.
+   *
+   * @return the connection idle timeout, in milliseconds
+   */
+  public int getConnectionIdleTimeoutMillis() {
+    return connectionIdleTimeoutMillis;
+  }
+
+  /**
+   * Get the most connections to have open at once.
+   *
+   * @return the maximum number of connections, or 0 for no limit
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+}
@@ -0,0 +1,127 @@
+package umm3601;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+/**
+ * A dictionary of the distinct values of a string field, giving each one a
+ * small integer code.
+ * <p>
+ * Fields like a todo's owner or a user's role only ever have a handful of
+ * distinct values, repeated across every record. Keeping one shared
+ * (canonical) `String` for each value, rather than a separate copy for
+ * every record, saves a lot of memory for large datasets, and comparing
+ * codes is much cheaper than comparing strings. Codes are handed out in
+ * the order values are first seen, starting at 0.
+ */
+public final class StringDictionary {
+
+  // The code of each value, and the (canonical) value for each code.
+  private final Map<String, Integer> codes = new HashMap<>();
+  private final List<String> values = new ArrayList<>();
+
+  /**
+   * Get the code for the given value, adding it to the dictionary if it
+   * isn't there already.
+   *
+   * @param value the value to encode
+   * @return the code for that value
+   */
+  public int encode(String value) {
+    Integer code = codes.get(value);
+    if (code == null) {
+      code = values.size();
+      codes.put(value, code);
+      values.add(value);
+    }
+    return code;
+  }
+
+  /**
+   * Get the code for the given value, without adding it to the dictionary.
+   *
+   * @param value the value to look up
+   * @return the code for that value, or -1 if it isn't in the dictionary
+   */
+  public int code(String value) {
+    return codes.getOrDefault(value, -1);
+  }
+
+  /**
+   * Get the (canonical) value with the given code.
+   *
+   * @param code the code of the value
+   * @return the value with that code
+   */
+  public String value(int code) {
+    return values.get(code);
+  }
+
+  /**
+   * Get the canonical instance of the given value, adding it to the
+   * dictionary if it isn't there already.
+   *
+   * @param value the value to intern
+   * @return the equal value held by the dictionary
+   */
+  public String intern(String value) {
+    return value(encode(value));
+  }
+
+  /**
+   * Get the number of distinct values in the dictionary.
+   *
+   * @return the number of distinct values
+   */
+  public int size() {
+    return values.size();
+  }
+
+  /**
+   * Get a reader that works like `reader`, except that it interns the
+   * values of every field deserialized with a `StringDictionary.Deserializer`,
+   * keeping one dictionary for each field name. Each call makes new
+   * dictionaries, which are dropped once the reader is.
+   *
+   * @param reader the reader to start from
+   * @return a reader that interns dictionary-encoded fields
+   */
+  public static ObjectReader interning(ObjectReader reader) {
+    return reader.withAttribute(Deserializer.class, new HashMap<String, StringDictionary>());
+  }
+
+  /**
+   * A Jackson deserializer for low-cardinality string fields (e.g.,
+   * `@JsonDeserialize(using = StringDictionary.Deserializer.class)`), which
+   * hands back the canonical instance of each value when reading with an
+   * `interning()` reader, so that the records never hold duplicate copies
+   * of the same value. With any other reader it's just the usual string
+   * deserializer.
+   */
+  public static final class Deserializer extends StdDeserializer<String> {
+
+    public Deserializer() {
+      super(String.class);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public String deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+      String value = parser.getValueAsString();
+      Map<String, StringDictionary> dictionaries =
+          (Map<String, StringDictionary>) context.getAttribute(Deserializer.class);
+      if (dictionaries == null || value == null) {
+        return value;
+      }
+      return dictionaries.computeIfAbsent(parser.currentName(), name -> new StringDictionary()).intern(value);
+    }
+  }
+}
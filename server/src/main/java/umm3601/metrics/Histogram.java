@@ -0,0 +1,103 @@
+package umm3601.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with fixed bucket boundaries, in the form Prometheus expects.
+ * <p>
+ * Every bucket (as well as the overall count and sum) is a `LongAdder` (or
+ * `DoubleAdder`), which spreads concurrent updates over several cells
+ * instead of having every thread fight over one, so recording a value
+ * never blocks and adds almost no contention even when many requests
+ * finish at once. Reading the histogram adds the cells up, so a snapshot
+ * taken while values are being recorded may be very slightly out of date,
+ * which is fine for metrics.
+ */
+public final class Histogram {
+
+  // The (inclusive) upper bound of each bucket, in increasing order. There
+  // is one more bucket than there are bounds, for values above the last
+  // bound.
+  private final double[] upperBounds;
+  private final LongAdder[] buckets;
+  private final LongAdder count = new LongAdder();
+  private final DoubleAdder sum = new DoubleAdder();
+
+  /**
+   * Construct a histogram.
+   *
+   * @param upperBounds the upper bound of each bucket, in increasing order
+   */
+  public Histogram(double... upperBounds) {
+    this.upperBounds = Arrays.copyOf(upperBounds, upperBounds.length);
+    this.buckets = new LongAdder[upperBounds.length + 1];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Record a value.
+   *
+   * @param value the value to record
+   */
+  public void record(double value) {
+    int bucket = Arrays.binarySearch(upperBounds, value);
+    // A negative result means the value isn't exactly one of the bounds,
+    // and encodes where it would be inserted, which is the first bucket
+    // whose bound is larger than the value.
+    if (bucket < 0) {
+      bucket = -bucket - 1;
+    }
+    buckets[bucket].increment();
+    count.increment();
+    sum.add(value);
+  }
+
+  /**
+   * Get the upper bound of each bucket (not including the last bucket,
+   * which has no upper bound).
+   *
+   * @return the upper bounds of the buckets
+   */
+  public double[] upperBounds() {
+    return Arrays.copyOf(upperBounds, upperBounds.length);
+  }
+
+  /**
+   * Get the cumulative count for each bucket, i.e., the number of values
+   * recorded that were at most that bucket's upper bound. The last count
+   * is for all the values recorded.
+   *
+   * @return the cumulative bucket counts
+   */
+  public long[] cumulativeCounts() {
+    long[] counts = new long[buckets.length];
+    long total = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      total += buckets[i].sum();
+      counts[i] = total;
+    }
+    return counts;
+  }
+
+  /**
+   * Get the number of values recorded.
+   *
+   * @return the number of values recorded
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * Get the sum of the values recorded.
+   *
+   * @return the sum of the values recorded
+   */
+  public double sum() {
+    return sum.sum();
+  }
+}
@@ -0,0 +1,476 @@
+package umm3601.metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import org.eclipse.jetty.server.Response;
+import umm3601.Controller;
+import umm3601.QueryTiming;
+import umm3601.ResponseCache;
+
+/**
+ * Controller that records metrics about the requests the server handles,
+ * and serves them (along with some JVM metrics) in the Prometheus text
+ * format at `/metrics`.
+ * <p>
+ * For each route (and HTTP method) we count the requests with each
+ * response status, and keep histograms of how long the requests took and
+ * how large the responses were. Recording only ever updates `LongAdder`s,
+ * so it doesn't need any locks and adds next to no contention between
+ * requests.
+ */
+public class MetricsController implements Controller {
+
+  /**
+   * The content type for the Prometheus text format.
+   */
+  public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  // The request attributes holding the time (from `System.nanoTime()`) the
+  // request started, and its flight recorder event.
+  private static final String START_TIME_ATTRIBUTE = "metrics.startTime";
+  private static final String EVENT_ATTRIBUTE = "metrics.event";
+
+  // The route we record requests that didn't match any endpoint under, so
+  // that (for example) requests for lots of different missing pages don't
+  // each get their own metrics.
+  private static final String UNMATCHED_ROUTE = "unmatched";
+
+  // The bucket boundaries for request durations (in seconds) and response
+  // sizes (in bytes).
+  private static final double[] DURATION_BUCKETS = {
+    0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+  };
+  private static final double[] SIZE_BUCKETS = {
+    100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000
+  };
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final double MILLIS_PER_SECOND = TimeUnit.SECONDS.toMillis(1);
+
+  // The metrics for each route, keyed by the HTTP method and route.
+  private final ConcurrentMap<RouteKey, RouteMetrics> routeMetrics = new ConcurrentHashMap<>();
+
+  // The response caches whose hits and misses we report, by name.
+  private final Map<String, ResponseCache> responseCaches = new TreeMap<>();
+
+  /**
+   * Report the hits and misses of a response cache, along with the other
+   * metrics.
+   *
+   * @param name  the name to report the cache under (e.g., "todos")
+   * @param cache the response cache
+   */
+  public void addResponseCache(String name, ResponseCache cache) {
+    responseCaches.put(name, cache);
+  }
+
+  /**
+   * Note the time a request started, so that `recordRequest()` can tell
+   * how long it took. If a flight recording is running, this also starts
+   * the request's `RequestEvent`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void startTimer(Context ctx) {
+    ctx.attribute(START_TIME_ATTRIBUTE, System.nanoTime());
+    RequestEvent event = new RequestEvent();
+    if (event.isEnabled()) {
+      event.begin();
+      ctx.attribute(EVENT_ATTRIBUTE, event);
+    }
+  }
+
+  /**
+   * Record the metrics for a request that has been handled.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void recordRequest(Context ctx) {
+    Long startTime = ctx.attribute(START_TIME_ATTRIBUTE);
+    if (startTime == null) {
+      return;
+    }
+    long duration = System.nanoTime() - startTime;
+
+    String route = ctx.endpointHandlerPath();
+    if (route == null || route.isEmpty()) {
+      route = UNMATCHED_ROUTE;
+    }
+    RouteKey key = new RouteKey(ctx.method().name(), route);
+    RouteMetrics metrics = routeMetrics.get(key);
+    if (metrics == null) {
+      metrics = routeMetrics.computeIfAbsent(key, k -> new RouteMetrics());
+    }
+    long responseBytes = responseBytes(ctx);
+    metrics.record(ctx.statusCode(), duration / NANOS_PER_SECOND, responseBytes);
+
+    // If a flight recording is running, record the request there too.
+    RequestEvent event = ctx.attribute(EVENT_ATTRIBUTE);
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.method = key.method;
+        event.route = route;
+        event.path = ctx.path();
+        event.query = ctx.queryString();
+        event.status = ctx.statusCode();
+        event.responseSize = responseBytes;
+        event.commit();
+      }
+    }
+
+    // Requests that asked for a timing breakdown also tell us how long
+    // each stage of their query took.
+    QueryTiming timing = ctx.attribute(QueryTiming.ATTRIBUTE);
+    if (timing != null) {
+      for (QueryTiming.Stage stage : timing.stages()) {
+        metrics.recordStage(stage);
+      }
+    }
+  }
+
+  /**
+   * Get the size, in bytes, of the response body. Streamed responses have
+   * already been (at least partly) written by now, while any result set
+   * with `ctx.result()` or `ctx.json()` is still waiting to be written, so
+   * we add the two together.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the size of the response body
+   */
+  private static long responseBytes(Context ctx) {
+    long bytes = 0;
+    if (ctx.res() instanceof Response) {
+      bytes += ((Response) ctx.res()).getHttpOutput().getWritten();
+    }
+    InputStream result = ctx.resultInputStream();
+    if (result != null) {
+      try {
+        bytes += result.available();
+      } catch (IOException e) {
+        // We just won't count this part of the response
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Send all the metrics, in the Prometheus text format.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getMetrics(Context ctx) {
+    StringBuilder out = new StringBuilder();
+    writeRequestMetrics(out);
+    writeResponseCacheMetrics(out);
+    writeJvmMetrics(out);
+    ctx.contentType(PROMETHEUS_CONTENT_TYPE);
+    ctx.result(out.toString());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Write the request counts, durations, and response sizes for each route.
+   *
+   * @param out where to write the metrics
+   */
+  private void writeRequestMetrics(StringBuilder out) {
+    // Sort the routes so the output is stable from one scrape to the next.
+    Map<RouteKey, RouteMetrics> routes = new TreeMap<>(routeMetrics);
+
+    header(out, "http_requests_total", "counter", "The number of HTTP requests handled, by route and status.");
+    for (Map.Entry<RouteKey, RouteMetrics> route : routes.entrySet()) {
+      for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(route.getValue().statusCounts).entrySet()) {
+        sample(out, "http_requests_total", route.getKey().labels() + ",status=\"" + status.getKey() + "\"",
+            status.getValue().sum());
+      }
+    }
+
+    header(out, "http_request_duration_seconds", "histogram", "How long HTTP requests took to handle.");
+    for (Map.Entry<RouteKey, RouteMetrics> route : routes.entrySet()) {
+      histogram(out, "http_request_duration_seconds", route.getKey().labels(), route.getValue().durations);
+    }
+
+    header(out, "http_response_size_bytes", "histogram", "The size of HTTP response bodies.");
+    for (Map.Entry<RouteKey, RouteMetrics> route : routes.entrySet()) {
+      histogram(out, "http_response_size_bytes", route.getKey().labels(), route.getValue().sizes);
+    }
+
+    writeStageMetrics(out, routes);
+  }
+
+  /**
+   * Write the durations and record counts of each stage of the queries
+   * that asked for a timing breakdown.
+   *
+   * @param out    where to write the metrics
+   * @param routes the metrics for each route
+   */
+  private void writeStageMetrics(StringBuilder out, Map<RouteKey, RouteMetrics> routes) {
+    header(out, "query_stage_duration_seconds", "histogram", "How long each stage of timed queries took.");
+    for (Map.Entry<RouteKey, RouteMetrics> route : routes.entrySet()) {
+      for (Map.Entry<String, StageMetrics> stage : new TreeMap<>(route.getValue().stages).entrySet()) {
+        histogram(out, "query_stage_duration_seconds", stageLabels(route.getKey(), stage.getKey()),
+            stage.getValue().durations);
+      }
+    }
+    header(out, "query_stage_records_in_total", "counter", "The number of records that went into each query stage.");
+    for (Map.Entry<RouteKey, RouteMetrics> route : routes.entrySet()) {
+      for (Map.Entry<String, StageMetrics> stage : new TreeMap<>(route.getValue().stages).entrySet()) {
+        sample(out, "query_stage_records_in_total", stageLabels(route.getKey(), stage.getKey()),
+            stage.getValue().recordsIn.sum());
+      }
+    }
+    header(out, "query_stage_records_out_total", "counter", "The number of records that came out of each query stage.");
+    for (Map.Entry<RouteKey, RouteMetrics> route : routes.entrySet()) {
+      for (Map.Entry<String, StageMetrics> stage : new TreeMap<>(route.getValue().stages).entrySet()) {
+        sample(out, "query_stage_records_out_total", stageLabels(route.getKey(), stage.getKey()),
+            stage.getValue().recordsOut.sum());
+      }
+    }
+  }
+
+  /**
+   * Get the labels for a query stage's metrics.
+   *
+   * @param route the route the query was for
+   * @param stage the name of the stage
+   * @return the labels (without the braces)
+   */
+  private static String stageLabels(RouteKey route, String stage) {
+    return route.labels() + ",stage=\"" + escape(stage) + "\"";
+  }
+
+  /**
+   * Write the hit and miss counts for each response cache.
+   *
+   * @param out where to write the metrics
+   */
+  private void writeResponseCacheMetrics(StringBuilder out) {
+    if (responseCaches.isEmpty()) {
+      return;
+    }
+    header(out, "response_cache_hits_total", "counter", "The number of requests answered from a response cache.");
+    responseCaches.forEach((name, cache) ->
+        sample(out, "response_cache_hits_total", "cache=\"" + escape(name) + "\"", cache.hitCount()));
+    header(out, "response_cache_misses_total", "counter", "The number of requests not found in a response cache.");
+    responseCaches.forEach((name, cache) ->
+        sample(out, "response_cache_misses_total", "cache=\"" + escape(name) + "\"", cache.missCount()));
+    header(out, "response_cache_size_bytes", "gauge", "The total size of the responses in a response cache.");
+    responseCaches.forEach((name, cache) ->
+        sample(out, "response_cache_size_bytes", "cache=\"" + escape(name) + "\"", cache.size()));
+  }
+
+  /**
+   * Write the JVM's heap usage, garbage collection, and thread metrics.
+   *
+   * @param out where to write the metrics
+   */
+  private void writeJvmMetrics(StringBuilder out) {
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    header(out, "jvm_memory_heap_used_bytes", "gauge", "The amount of heap memory in use.");
+    sample(out, "jvm_memory_heap_used_bytes", null, heap.getUsed());
+    header(out, "jvm_memory_heap_committed_bytes", "gauge", "The amount of heap memory committed by the JVM.");
+    sample(out, "jvm_memory_heap_committed_bytes", null, heap.getCommitted());
+    header(out, "jvm_memory_heap_max_bytes", "gauge", "The most heap memory the JVM can use.");
+    sample(out, "jvm_memory_heap_max_bytes", null, heap.getMax());
+
+    header(out, "jvm_gc_collections_total", "counter", "The number of garbage collections, by collector.");
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      sample(out, "jvm_gc_collections_total", "gc=\"" + escape(gc.getName()) + "\"", gc.getCollectionCount());
+    }
+    header(out, "jvm_gc_collection_seconds_total", "counter", "The time spent in garbage collection, by collector.");
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      sample(out, "jvm_gc_collection_seconds_total", "gc=\"" + escape(gc.getName()) + "\"",
+          gc.getCollectionTime() / MILLIS_PER_SECOND);
+    }
+
+    header(out, "jvm_threads_live", "gauge", "The number of live threads.");
+    sample(out, "jvm_threads_live", null, ManagementFactory.getThreadMXBean().getThreadCount());
+  }
+
+  /**
+   * Write the `HELP` and `TYPE` lines that introduce a metric.
+   *
+   * @param out  where to write the lines
+   * @param name the name of the metric
+   * @param type the type of the metric (e.g., "counter")
+   * @param help a description of the metric
+   */
+  private static void header(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  /**
+   * Write a single sample of a metric.
+   *
+   * @param out    where to write the sample
+   * @param name   the name of the metric
+   * @param labels the labels for the sample (without the braces), or `null`
+   * @param value  the value of the sample
+   */
+  private static void sample(StringBuilder out, String name, String labels, double value) {
+    out.append(name);
+    if (labels != null) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(format(value)).append('\n');
+  }
+
+  /**
+   * Format a number for the Prometheus text format, without any
+   * scientific notation or needless trailing zeros (e.g., "0.0001" rather
+   * than "1.0E-4", and "100" rather than "100.0").
+   *
+   * @param value the number
+   * @return the formatted number
+   */
+  static String format(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return Double.toString(value);
+    }
+    return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+  }
+
+  /**
+   * Write the buckets, sum, and count of a histogram.
+   *
+   * @param out       where to write the samples
+   * @param name      the name of the metric
+   * @param labels    the labels for the samples (without the braces)
+   * @param histogram the histogram
+   */
+  static void histogram(StringBuilder out, String name, String labels, Histogram histogram) {
+    double[] upperBounds = histogram.upperBounds();
+    long[] counts = histogram.cumulativeCounts();
+    for (int i = 0; i < upperBounds.length; i++) {
+      sample(out, name + "_bucket", labels + ",le=\"" + format(upperBounds[i]) + "\"", counts[i]);
+    }
+    // Use the last cumulative count as the total, so that the `+Inf`
+    // bucket and the count always agree.
+    long count = counts[counts.length - 1];
+    sample(out, name + "_bucket", labels + ",le=\"+Inf\"", count);
+    sample(out, name + "_sum", labels, histogram.sum());
+    sample(out, name + "_count", labels, count);
+  }
+
+  /**
+   * Escape a label value for the Prometheus text format.
+   *
+   * @param value the label value
+   * @return the escaped label value
+   */
+  static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Setup routes for the metrics endpoint, and the handlers that record
+   * the metrics for every request.
+   *
+   * These endpoints are:
+   * - `GET /metrics`
+   * - Get the metrics in the Prometheus text format
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    // Time every request, and record its metrics once it's been handled.
+    server.before(this::startTimer);
+    server.after(this::recordRequest);
+
+    server.get("/metrics", this::getMetrics);
+  }
+
+  /**
+   * The HTTP method and route (e.g., `api/todos/{id}`) we keep metrics for.
+   */
+  private static final class RouteKey implements Comparable<RouteKey> {
+    private final String method;
+    private final String route;
+
+    RouteKey(String method, String route) {
+      this.method = method;
+      this.route = route;
+    }
+
+    String labels() {
+      return "method=\"" + method + "\",route=\"" + escape(route) + "\"";
+    }
+
+    @Override
+    public int compareTo(RouteKey other) {
+      int byRoute = route.compareTo(other.route);
+      return byRoute != 0 ? byRoute : method.compareTo(other.method);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof RouteKey
+          && method.equals(((RouteKey) other).method)
+          && route.equals(((RouteKey) other).route);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(method, route);
+    }
+  }
+
+  /**
+   * The metrics we keep for a single route (and the stages of any timed
+   * queries to it).
+   */
+  private static final class RouteMetrics {
+    private final ConcurrentMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    private final Histogram durations = new Histogram(DURATION_BUCKETS);
+    private final Histogram sizes = new Histogram(SIZE_BUCKETS);
+    private final ConcurrentMap<String, StageMetrics> stages = new ConcurrentHashMap<>();
+
+    void record(int status, double seconds, long bytes) {
+      LongAdder statusCount = statusCounts.get(status);
+      if (statusCount == null) {
+        statusCount = statusCounts.computeIfAbsent(status, s -> new LongAdder());
+      }
+      statusCount.increment();
+      durations.record(seconds);
+      sizes.record(bytes);
+    }
+
+    void recordStage(QueryTiming.Stage stage) {
+      StageMetrics stageMetrics = stages.get(stage.name());
+      if (stageMetrics == null) {
+        stageMetrics = stages.computeIfAbsent(stage.name(), s -> new StageMetrics());
+      }
+      stageMetrics.durations.record(stage.nanos() / NANOS_PER_SECOND);
+      stageMetrics.recordsIn.add(stage.in());
+      stageMetrics.recordsOut.add(stage.out());
+    }
+  }
+
+  /**
+   * The metrics we keep for a single stage of the queries to a route.
+   */
+  private static final class StageMetrics {
+    private final Histogram durations = new Histogram(DURATION_BUCKETS);
+    private final LongAdder recordsIn = new LongAdder();
+    private final LongAdder recordsOut = new LongAdder();
+  }
+}
@@ -0,0 +1,68 @@
+package umm3601.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for running a query against one of the
+ * databases (e.g., `TodoDatabase.listTodos()`).
+ * <p>
+ * As with `RequestEvent`, these are only recorded while a flight recording
+ * is running. Use `QueryEvent.start()` before running the query and
+ * `finish()` once it's done; the query parameters are only formatted if
+ * the event is actually going to be recorded.
+ */
+@Name("umm3601.Query")
+@Label("Database Query")
+@Category({ "Lab 3", "Database" })
+@Description("A query against the todo or user database")
+@StackTrace(false)
+public class QueryEvent extends jdk.jfr.Event {
+
+  @Label("Database")
+  String database;
+
+  @Label("Query Parameters")
+  String queryParams;
+
+  @Label("Result Count")
+  @Description("The number of records the query returned")
+  int resultCount;
+
+  /**
+   * Start timing a query.
+   *
+   * @param database the name of the database being queried (e.g., "todos")
+   * @return the event, which should be finished with `finish()`
+   */
+  public static QueryEvent start(String database) {
+    QueryEvent event = new QueryEvent();
+    event.database = database;
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Finish timing a query, and record the event if a flight recording
+   * wants it.
+   *
+   * @param params the query parameters
+   * @param count  the number of records the query returned
+   */
+  public void finish(Map<String, List<String>> params, int count) {
+    end();
+    if (shouldCommit()) {
+      // Sort the parameters so the same query always looks the same.
+      queryParams = new TreeMap<>(params).toString();
+      resultCount = count;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package umm3601.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for the handling of a single HTTP request.
+ * <p>
+ * These are only recorded while a flight recording is running (e.g., one
+ * started with `-XX:StartFlightRecording` or from JDK Mission Control), and
+ * cost next to nothing otherwise. Since they're recorded alongside the
+ * JVM's own events, a slow request can be lined up with whatever garbage
+ * collection or allocation was going on at the time.
+ */
+@Name("umm3601.HttpRequest")
+@Label("HTTP Request")
+@Category({ "Lab 3", "HTTP" })
+@Description("The handling of an HTTP request")
+@StackTrace(false)
+public class RequestEvent extends jdk.jfr.Event {
+
+  @Label("Method")
+  String method;
+
+  @Label("Route")
+  @Description("The route the request matched, e.g., api/todos/{id}")
+  String route;
+
+  @Label("Path")
+  String path;
+
+  @Label("Query")
+  String query;
+
+  @Label("Status")
+  int status;
+
+  @Label("Response Size")
+  @DataAmount
+  long responseSize;
+}
@@ -0,0 +1,125 @@
+package umm3601.todo;
+
+import java.nio.IntBuffer;
+import java.util.BitSet;
+
+import umm3601.StringDictionary;
+
+/**
+ * A column of a string field with only a few distinct values (e.g., the
+ * owner of each todo), held as the code of each todo's value in a
+ * dictionary of those values.
+ * <p>
+ * The codes are held in an `IntBuffer`, so that they can just as well be
+ * on the heap or mapped from a file (see `TodoFile`).
+ */
+class DictionaryColumn {
+
+  // The distinct values in the column.
+  private final StringDictionary dictionary;
+
+  // The code of the value at each position.
+  private final IntBuffer codes;
+
+  /**
+   * Construct a column.
+   *
+   * @param dictionary the distinct values in the column
+   * @param codes      the code of the value at each position
+   */
+  DictionaryColumn(StringDictionary dictionary, IntBuffer codes) {
+    this.dictionary = dictionary;
+    this.codes = codes;
+  }
+
+  /**
+   * Get the distinct values in the column.
+   *
+   * @return the dictionary of values
+   */
+  StringDictionary dictionary() {
+    return dictionary;
+  }
+
+  /**
+   * Get the code of the value at each position.
+   *
+   * @return a read-only view of the codes
+   */
+  IntBuffer codes() {
+    return codes.asReadOnlyBuffer();
+  }
+
+  /**
+   * Get the number of values in the column.
+   *
+   * @return the number of values
+   */
+  int size() {
+    return codes.limit();
+  }
+
+  /**
+   * Get the code of the value at the given position.
+   *
+   * @param position the position of the value
+   * @return its code
+   */
+  int code(int position) {
+    return codes.get(position);
+  }
+
+  /**
+   * Get the value at the given position.
+   *
+   * @param position the position of the value
+   * @return the value
+   */
+  String value(int position) {
+    return dictionary.value(codes.get(position));
+  }
+
+  /**
+   * Clear the bits in `matches` for the positions whose value isn't the
+   * target value, ignoring case.
+   * <p>
+   * Only the (few) values in the dictionary are compared as strings; each
+   * position is then just an array lookup by its code.
+   *
+   * @param matches     the bitset of positions to narrow down
+   * @param targetValue the value to look for
+   */
+  void retain(BitSet matches, String targetValue) {
+    // Whether each code is wanted, as 1 or 0 rather than as a boolean, so
+    // that it can be shifted straight into place below.
+    String target = targetValue.toLowerCase();
+    long[] wanted = new long[dictionary.size()];
+    boolean anyWanted = false;
+    for (int code = 0; code < wanted.length; code++) {
+      if (dictionary.value(code).toLowerCase().equals(target)) {
+        wanted[code] = 1;
+        anyWanted = true;
+      }
+    }
+    if (!anyWanted) {
+      matches.clear();
+      return;
+    }
+    // Build the bitset of matching positions a word (64 positions) at a
+    // time, in one straight pass over the codes with no branches to
+    // mispredict. That's much faster than visiting the bits of `matches`
+    // one by one.
+    int size = codes.limit();
+    long[] words = new long[(size + Long.SIZE - 1) / Long.SIZE];
+    for (int w = 0; w < words.length; w++) {
+      int base = w * Long.SIZE;
+      int end = Math.min(base + Long.SIZE, size);
+      long word = 0;
+      for (int i = base; i < end; i++) {
+        word |= wanted[codes.get(i)] << (i - base);
+      }
+      words[w] = word;
+    }
+    matches.and(BitSet.valueOf(words));
+  }
+}
@@ -0,0 +1,175 @@
+package umm3601.todo;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * A precomputed sort order over a fixed array of todos.
+ * <p>
+ * Since the todos never change once they're loaded, we can sort them by each
+ * sortable field just once, up front. `order` lists the todo positions in
+ * sorted order, and `rank` is its inverse (`rank[order[r]] == r`), so
+ * putting any subset of the todos in order is just a matter of comparing
+ * their (integer) ranks, with no calls to the comparator at all.
+ * <p>
+ * Both are held in `IntBuffer`s, so that they can just as well be on the
+ * heap or mapped from a file (see `TodoFile`).
+ */
+class SortPermutation {
+
+  // If at least this fraction (1 / DENSE_FRACTION) of all the todos are
+  // being sorted, it's cheaper to walk the whole permutation and pick out
+  // the ones we want than it is to sort their ranks.
+  private static final int DENSE_FRACTION = 16;
+
+  // The positions of the todos, in sorted order.
+  private final IntBuffer order;
+
+  // The rank of each todo, i.e., where its position appears in `order`.
+  private final IntBuffer rank;
+
+  /**
+   * Build the sort permutation for the given todos. The sort is stable, so
+   * todos that compare as equal stay in the same order as in `todos`.
+   *
+   * @param todos      the todos to sort
+   * @param comparator the comparator that defines the sort order
+   */
+  SortPermutation(Todo[] todos, Comparator<Todo> comparator) {
+    Integer[] sortedPositions = new Integer[todos.length];
+    for (int i = 0; i < todos.length; i++) {
+      sortedPositions[i] = i;
+    }
+    Arrays.sort(sortedPositions, (x, y) -> comparator.compare(todos[x], todos[y]));
+
+    int[] orderArray = new int[todos.length];
+    int[] rankArray = new int[todos.length];
+    for (int r = 0; r < todos.length; r++) {
+      orderArray[r] = sortedPositions[r];
+      rankArray[orderArray[r]] = r;
+    }
+    order = IntBuffer.wrap(orderArray);
+    rank = IntBuffer.wrap(rankArray);
+  }
+
+  /**
+   * Use a sort permutation that's already been built.
+   *
+   * @param order the positions of the todos, in sorted order
+   * @param rank  the rank of each todo
+   */
+  SortPermutation(IntBuffer order, IntBuffer rank) {
+    this.order = order;
+    this.rank = rank;
+  }
+
+  /**
+   * Get the positions of the todos, in sorted order.
+   *
+   * @return a read-only view of the positions
+   */
+  IntBuffer order() {
+    return order.asReadOnlyBuffer();
+  }
+
+  /**
+   * Get the rank of each todo.
+   *
+   * @return a read-only view of the ranks
+   */
+  IntBuffer ranks() {
+    return rank.asReadOnlyBuffer();
+  }
+
+  /**
+   * Get the rank of the todo at the given position, i.e., where it comes in
+   * this sort order.
+   *
+   * @param position the position of a todo
+   * @return the rank of that todo in this sort order
+   */
+  int rank(int position) {
+    return rank.get(position);
+  }
+
+  /**
+   * Get the positions of (at most) the first `limit` todos in `matches`, in
+   * sorted order, skipping any todos whose rank is less than `fromRank`.
+   * <p>
+   * Asking for only the first `limit` todos avoids sorting all the
+   * matching todos when we only want a few of them, and starting from
+   * `fromRank` lets us pick up where a previous page left off.
+   *
+   * @param matches  the bitset of todo positions to choose from
+   * @param fromRank the rank of the first todo that may be included
+   * @param limit    the maximum number of positions to return
+   * @return the positions of the first `limit` todos in `matches` with rank
+   *         at least `fromRank`, in sorted order
+   */
+  int[] sortedPositions(BitSet matches, int fromRank, int limit) {
+    int count = matches.cardinality();
+    if (limit == 0 || count == 0) {
+      return new int[0];
+    }
+
+    if (count >= order.limit() / DENSE_FRACTION) {
+      // At least one todo in every DENSE_FRACTION is included, so walking
+      // the permutation in rank order finds the next match within a few
+      // steps (each just a bit test), and we can stop as soon as we have
+      // `limit` of them. That's cheaper than gathering and sorting the
+      // ranks of every match, most of which we'd then throw away.
+      int[] positions = new int[Math.min(limit, count)];
+      int found = 0;
+      for (int r = fromRank; r < order.limit() && found < positions.length; r++) {
+        if (matches.get(order.get(r))) {
+          positions[found++] = order.get(r);
+        }
+      }
+      return (found == positions.length) ? positions : Arrays.copyOf(positions, found);
+    }
+
+    if (limit >= count) {
+      // Only a few todos are included and we want all of them, so sort
+      // their ranks and then map those ranks back to positions.
+      int[] ranks = new int[count];
+      int found = 0;
+      for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+        int r = rank.get(i);
+        if (r >= fromRank) {
+          ranks[found++] = r;
+        }
+      }
+      Arrays.sort(ranks, 0, found);
+      int[] positions = new int[found];
+      for (int r = 0; r < found; r++) {
+        positions[r] = order.get(ranks[r]);
+      }
+      return positions;
+    }
+
+    // Otherwise keep the `limit` smallest ranks we've seen so far in a
+    // max-heap, so each matching todo costs O(log limit) instead of
+    // sorting all of them.
+    PriorityQueue<Integer> smallestRanks = new PriorityQueue<>(limit, Comparator.reverseOrder());
+    for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+      int r = rank.get(i);
+      if (r < fromRank) {
+        continue;
+      }
+      if (smallestRanks.size() < limit) {
+        smallestRanks.add(r);
+      } else if (r < smallestRanks.peek()) {
+        smallestRanks.poll();
+        smallestRanks.add(r);
+      }
+    }
+    int[] positions = new int[smallestRanks.size()];
+    for (int r = positions.length - 1; r >= 0; r--) {
+      positions[r] = order.get(smallestRanks.poll());
+    }
+    return positions;
+  }
+}
@@ -0,0 +1,240 @@
+package umm3601.todo;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+import umm3601.IdIndex;
+
+/**
+ * The todos stored "column by column" instead of as an array of `Todo`
+ * objects.
+ * <p>
+ * Each field of every todo is kept in its own compact array: the statuses
+ * as the bits of a `BitSet`, the owners and categories as `int` codes into
+ * a small dictionary of their distinct values, and all the bodies one
+ * after another in a single UTF-8 byte array. That's a fraction of the
+ * memory of millions of separate `Todo` and `String` objects (and far less
+ * for the garbage collector to trace), and filtering on a field is a tight
+ * loop over one primitive array. A `Todo` object is only made, by
+ * `todoAt()`, for each todo that's actually returned.
+ * <p>
+ * The arrays are held in `java.nio` buffers, so that they can just as well
+ * be on the heap or mapped from a file (see `TodoFile`).
+ */
+class TodoColumns {
+
+  // The ID of each todo.
+  private final IdIndex ids;
+
+  // Bit `i` is set if the todo at position `i` is complete.
+  private final BitSet complete;
+
+  // The owner and category of each todo.
+  private final DictionaryColumn owners;
+  private final DictionaryColumn categories;
+
+  // The UTF-8 bytes of every body, one after another. The body of the todo
+  // at position `i` runs from `bodyOffsets[i]` up to `bodyOffsets[i + 1]`.
+  private final IntBuffer bodyOffsets;
+  private final ByteBuffer bodyBytes;
+
+  /**
+   * Store the given todos in columns.
+   *
+   * @param todos      the todos to store
+   * @param ids        the IDs of the todos
+   * @param owners     the owners of the todos
+   * @param categories the categories of the todos
+   * @throws IllegalArgumentException if the bodies add up to more than a
+   *                                  single array can hold (about 2GB)
+   */
+  TodoColumns(Todo[] todos, IdIndex ids, DictionaryColumn owners, DictionaryColumn categories) {
+    int size = todos.length;
+    this.ids = ids;
+    complete = new BitSet(size);
+    this.owners = owners;
+    this.categories = categories;
+
+    byte[][] bodies = new byte[size][];
+    long bodyLength = 0;
+    for (int i = 0; i < size; i++) {
+      Todo todo = todos[i];
+      complete.set(i, todo.status);
+      bodies[i] = todo.body.getBytes(StandardCharsets.UTF_8);
+      bodyLength += bodies[i].length;
+    }
+    if (bodyLength > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The todo bodies are too large (" + bodyLength
+          + " bytes) to store in columns");
+    }
+
+    byte[] allBodies = new byte[(int) bodyLength];
+    int[] offsets = new int[size + 1];
+    int offset = 0;
+    for (int i = 0; i < size; i++) {
+      offsets[i] = offset;
+      System.arraycopy(bodies[i], 0, allBodies, offset, bodies[i].length);
+      offset += bodies[i].length;
+    }
+    offsets[size] = offset;
+    bodyOffsets = IntBuffer.wrap(offsets);
+    bodyBytes = ByteBuffer.wrap(allBodies);
+  }
+
+  /**
+   * Use columns that have already been built, e.g., ones that have been
+   * written to a file and mapped back into memory.
+   *
+   * @param ids         the IDs of the todos
+   * @param complete    the bitset of the complete todos
+   * @param owners      the owners of the todos
+   * @param categories  the categories of the todos
+   * @param bodyOffsets where each todo's body starts in `bodyBytes`, and
+   *                    (last) where the final body ends
+   * @param bodyBytes   the UTF-8 bytes of every body, one after another
+   */
+  TodoColumns(IdIndex ids, BitSet complete, DictionaryColumn owners, DictionaryColumn categories,
+      IntBuffer bodyOffsets, ByteBuffer bodyBytes) {
+    this.ids = ids;
+    this.complete = complete;
+    this.owners = owners;
+    this.categories = categories;
+    this.bodyOffsets = bodyOffsets;
+    this.bodyBytes = bodyBytes;
+  }
+
+  /**
+   * Get the number of todos.
+   *
+   * @return the number of todos
+   */
+  int size() {
+    return ids.size();
+  }
+
+  /**
+   * Get the IDs of the todos.
+   *
+   * @return the IDs of the todos
+   */
+  IdIndex ids() {
+    return ids;
+  }
+
+  /**
+   * Get the bitset of the complete todos. This is shared, so it mustn't be
+   * changed.
+   *
+   * @return the bitset of the complete todos
+   */
+  BitSet complete() {
+    return complete;
+  }
+
+  /**
+   * Get the owners of the todos.
+   *
+   * @return the owners of the todos
+   */
+  DictionaryColumn owners() {
+    return owners;
+  }
+
+  /**
+   * Get the categories of the todos.
+   *
+   * @return the categories of the todos
+   */
+  DictionaryColumn categories() {
+    return categories;
+  }
+
+  /**
+   * Get where each todo's body starts in `bodyBytes()`, and (last) where
+   * the final body ends.
+   *
+   * @return a read-only view of the body offsets
+   */
+  IntBuffer bodyOffsets() {
+    return bodyOffsets.asReadOnlyBuffer();
+  }
+
+  /**
+   * Get the UTF-8 bytes of every body, one after another.
+   *
+   * @return a read-only view of the body bytes
+   */
+  ByteBuffer bodyBytes() {
+    return bodyBytes.asReadOnlyBuffer();
+  }
+
+  /**
+   * Get the body of the todo at the given position.
+   *
+   * @param position the position of the todo
+   * @return its body
+   */
+  String body(int position) {
+    int start = bodyOffsets.get(position);
+    byte[] bytes = new byte[bodyOffsets.get(position + 1) - start];
+    bodyBytes.get(start, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Make a `Todo` object for the todo at the given position.
+   *
+   * @param position the position of the todo
+   * @return a new `Todo` with that todo's fields
+   */
+  Todo todoAt(int position) {
+    Todo todo = new Todo();
+    todo._id = ids.id(position);
+    todo.owner = owners.value(position);
+    todo.status = complete.get(position);
+    todo.body = body(position);
+    todo.category = categories.value(position);
+    return todo;
+  }
+
+  /**
+   * Clear the bits in `matches` for the todos whose owner isn't the target
+   * owner, ignoring case.
+   *
+   * @param matches     the bitset of todo positions to narrow down
+   * @param targetOwner the owner to look for
+   */
+  void retainOwner(BitSet matches, String targetOwner) {
+    owners.retain(matches, targetOwner);
+  }
+
+  /**
+   * Clear the bits in `matches` for the todos whose category isn't the
+   * target category, ignoring case.
+   *
+   * @param matches        the bitset of todo positions to narrow down
+   * @param targetCategory the category to look for
+   */
+  void retainCategory(BitSet matches, String targetCategory) {
+    categories.retain(matches, targetCategory);
+  }
+
+  /**
+   * Clear the bits in `matches` for the todos whose body doesn't contain
+   * the target text, ignoring case, by checking each remaining todo's body
+   * in turn. (This is for when there isn't a `TrigramIndex`.)
+   *
+   * @param matches    the bitset of todo positions to narrow down
+   * @param targetBody the text to look for in each todo's body
+   */
+  void retainContaining(BitSet matches, String targetBody) {
+    String target = targetBody.toLowerCase();
+    for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+      if (!body(i).toLowerCase().contains(target)) {
+        matches.clear(i);
+      }
+    }
+  }
+}
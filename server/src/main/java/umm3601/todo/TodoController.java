@@ -1,20 +1,53 @@
 package umm3601.todo;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.Compression;
 import umm3601.Controller;
+import umm3601.Cursor;
+import umm3601.ETags;
+import umm3601.JsonStreaming;
+import umm3601.QueryTiming;
+import umm3601.ResponseCache;
 
 /**
  * Controller that manages requests for info about todos.
  */
 public class TodoController implements Controller {
 
+  // The query parameters that affect the list of todos we send back, and
+  // which of those are compared without regard to case. We use these to
+  // tell when two requests are for the same list of todos.
+  private static final Set<String> QUERY_PARAMS =
+      Set.of("status", "contains", "owner", "category", "orderBy", "limit", "pageSize", "cursor");
+  private static final Set<String> CASE_INSENSITIVE_PARAMS = Set.of("status", "contains", "owner", "category");
+
+  // The most memory (in bytes) we'll use for caching responses.
+  private static final long RESPONSE_CACHE_BYTES = 64L * 1024 * 1024;
+
   private TodoDatabase todoDatabase;
 
+  // Recent responses to list requests. Our data never changes, so these
+  // never need to be invalidated; they only go when they're evicted to
+  // make room for others.
+  private ResponseCache responseCache = new ResponseCache(RESPONSE_CACHE_BYTES);
+
+  // Whether responses should be written straight to the client from the
+  // JSON the database serialized when it loaded, rather than serialized
+  // again with `ctx.json()`. (Unpaged) lists of todos are then also
+  // streamed to the client one todo at a time.
+  private boolean writeJsonDirectly;
+
   /**
    * Construct a controller for todos.
    * <p>
@@ -25,7 +58,20 @@ public class TodoController implements Controller {
    * @param todoDatabase the `TodoDatabase` containing todo data
    */
   public TodoController(TodoDatabase todoDatabase) {
+    this(todoDatabase, false);
+  }
+
+  /**
+   * Construct a controller for todos, which can optionally write the
+   * database's pre-serialized JSON straight to the client (streaming lists
+   * of todos) instead of serializing each response with `ctx.json()`.
+   *
+   * @param todoDatabase      the `TodoDatabase` containing todo data
+   * @param writeJsonDirectly whether to write pre-serialized JSON to the client
+   */
+  public TodoController(TodoDatabase todoDatabase, boolean writeJsonDirectly) {
     this.todoDatabase = todoDatabase;
+    this.writeJsonDirectly = writeJsonDirectly;
   }
 
   /**s
@@ -39,12 +85,35 @@ public class TodoController implements Controller {
    * @throws IOException
    */
   public static TodoController buildTodoController(String todoDataFile) throws IOException {
-    TodoDatabase todoDatabase = new TodoDatabase(todoDataFile);
-    TodoController todoController = new TodoController(todoDatabase);
+    return buildTodoController(todoDataFile, TodoDatabase.Storage.OBJECTS);
+  }
+
+  /**
+   * Create a database using the json file, storing its todos in the given
+   * way, and use it as the data source for a new TodoController.
+   *
+   * @param todoDataFile the path of the data file
+   * @param storage      how the database should store its todos
+   * @return the new TodoController
+   * @throws IOException if the data file can't be found or read
+   */
+  public static TodoController buildTodoController(String todoDataFile, TodoDatabase.Storage storage)
+      throws IOException {
+    TodoDatabase todoDatabase = new TodoDatabase(todoDataFile, storage);
+    TodoController todoController = new TodoController(todoDatabase, true);
 
     return todoController;
   }
 
+  /**
+   * Get the cache this controller keeps recent list responses in.
+   *
+   * @return the response cache
+   */
+  public ResponseCache getResponseCache() {
+    return responseCache;
+  }
+
   /**
    * Get the single todo specified by the `id` parameter in the request.
    *
@@ -52,13 +121,29 @@ public class TodoController implements Controller {
    */
   public void getTodo(Context ctx) {
     String id = ctx.pathParam("id");
-    Todo todo = todoDatabase.getTodo(id);
-    if (todo != null) {
-      ctx.json(todo);
-      ctx.status(HttpStatus.OK);
+    // Look the id up just once, and only get the form of the todo we're
+    // going to send: its JSON if we're writing that directly, otherwise
+    // the Todo itself.
+    byte[] json = null;
+    Todo todo = null;
+    if (writeJsonDirectly) {
+      json = todoDatabase.getSerializedTodo(id);
     } else {
+      todo = todoDatabase.getTodo(id);
+    }
+    if (json == null && todo == null) {
       throw new NotFoundResponse("No todo with id " + id + " was found.");
     }
+    // Clients that already have this todo can just keep using it.
+    if (ETags.notModified(ctx, ETags.of(todoDatabase.getDataVersion(), id))) {
+      return;
+    }
+    if (json != null) {
+      JsonStreaming.writeValue(ctx, json);
+    } else {
+      ctx.json(todo);
+    }
+    ctx.status(HttpStatus.OK);
   }
 
   /**
@@ -67,8 +152,103 @@ public class TodoController implements Controller {
    * @param ctx a Javalin HTTP context
    */
   public void getTodos(Context ctx) {
-    Todo[] todos = todoDatabase.listTodos(ctx.queryParamMap());
-    ctx.json(todos);
+    Map<String, List<String>> queryParams = ctx.queryParamMap();
+
+    // Clients doing bulk exports can ask for newline delimited JSON
+    // (one todo per line) instead of a JSON array.
+    boolean ndjson = JsonStreaming.wantsNdjson(ctx);
+    String contentType = ndjson ? JsonStreaming.NDJSON_CONTENT_TYPE : JsonStreaming.JSON_CONTENT_TYPE;
+    String canonicalQuery = ResponseCache.key(contentType, queryParams, QUERY_PARAMS, CASE_INSENSITIVE_PARAMS);
+
+    boolean acceptGzip = Compression.acceptsGzip(ctx);
+
+    // Requests can ask for a breakdown of how long each stage of the query
+    // takes (see `QueryTiming`). Those requests always run the query, so
+    // they never get a `304 Not Modified` or a cached response.
+    QueryTiming timing = QueryTiming.forRequest(ctx);
+
+    // Turn away a bad query before it gets an ETag, so that the ETag on an
+    // error response can never get a `304 Not Modified` later.
+    todoDatabase.validateQuery(queryParams);
+
+    // Clients that poll for the same todos can send back the ETag we gave
+    // them last time, and if nothing has changed we don't have to send
+    // them anything.
+    ctx.header(Header.VARY, Header.ACCEPT + ", " + Header.ACCEPT_ENCODING);
+    // The ETag is the same whether or not the response ends up gzipped
+    // (see `ETags`).
+    if (!timing.isEnabled() && ETags.notModified(ctx, ETags.of(todoDatabase.getDataVersion(), canonicalQuery))) {
+      return;
+    }
+
+    if (!writeJsonDirectly && !ndjson) {
+      Todo[] todos = todoDatabase.listTodos(queryParams, timing);
+      timing.addHeader(ctx);
+      String nextCursor = todoDatabase.nextCursor(queryParams, todos);
+      if (nextCursor != null) {
+        ctx.header(Cursor.NEXT_CURSOR_HEADER, nextCursor);
+      }
+      ctx.json(todos);
+      return;
+    }
+
+    // If we've recently sent the response to this same query, we can just
+    // send it again (compressed, if the client accepts that, with the copy
+    // we compressed when we cached it).
+    ResponseCache.Entry cachedResponse = timing.isEnabled() ? null : responseCache.get(canonicalQuery);
+    if (cachedResponse != null) {
+      cachedResponse.writeTo(ctx, acceptGzip);
+      return;
+    }
+
+    // Stream the todos if we can, so we never have to hold the entire
+    // response in memory. Paged responses are never very large, and they
+    // need the next cursor in a header before we start writing the body,
+    // so we get the whole page first. The same goes for timed requests,
+    // which need the timings in a header.
+    Map<String, String> headers = new HashMap<>();
+    Consumer<Consumer<byte[]>> producer;
+    if (queryParams.containsKey("pageSize") || timing.isEnabled()) {
+      Todo[] todos = todoDatabase.listTodos(queryParams, timing);
+      timing.addHeader(ctx);
+      // If there are (probably) more todos, tell the client where the
+      // next page starts.
+      String nextCursor = todoDatabase.nextCursor(queryParams, todos);
+      if (nextCursor != null) {
+        headers.put(Cursor.NEXT_CURSOR_HEADER, nextCursor);
+      }
+      producer = action -> forEachSerialized(todos, action);
+    } else {
+      producer = action -> todoDatabase.forEachSerializedTodo(queryParams, action);
+    }
+
+    headers.forEach(ctx::header);
+    ctx.contentType(contentType);
+    // Keep a copy of what we send so we can cache it, unless it turns out
+    // to be too big to cache.
+    ResponseCache.Capture capture = new ResponseCache.Capture(ctx.outputStream(), responseCache.maxEntrySize());
+    if (ndjson) {
+      JsonStreaming.writeLines(capture, producer);
+    } else {
+      JsonStreaming.writeArray(capture, producer);
+    }
+    byte[] body = capture.captured();
+    if (body != null) {
+      responseCache.put(canonicalQuery, new ResponseCache.Entry(body, contentType, headers));
+    }
+  }
+
+  /**
+   * Hand the database's pre-serialized JSON for each of the given todos
+   * to `action`, in order.
+   *
+   * @param todos  the todos to get the JSON for
+   * @param action the action to perform on the JSON for each todo
+   */
+  private void forEachSerialized(Todo[] todos, Consumer<byte[]> action) {
+    for (Todo todo : todos) {
+      action.accept(todoDatabase.getSerializedTodo(todo._id));
+    }
   }
 
   /**
@@ -78,6 +258,17 @@ public class TodoController implements Controller {
    * - `GET /api/todos?status=complete&category=homework&owner=STRING`
    * - List todos, filtered using query parameters
    * - `owner`, `status`, `body`, and `category` are optional query parameters
+   * - `pageSize` and `cursor` are optional query parameters for paging
+   *   through the list; the cursor for the next page is returned in the
+   *   `X-Next-Cursor` response header
+   * - Sending `Accept: application/x-ndjson` gets the todos as newline
+   *   delimited JSON, one todo per line, instead of as a JSON array
+   * - Every response has an `ETag`; sending it back in `If-None-Match`
+   *   gets a `304 Not Modified` if the response would be the same
+   * - Repeated (large) responses are sent gzipped to clients that send
+   *   `Accept-Encoding: gzip`, without compressing them each time
+   * - `debug=timing` (or an `X-Debug: timing` header) gets a breakdown of
+   *   how long each stage of the query took in a `Server-Timing` header
    * - `GET /api/todos/:id`
    * - Get the specified todo
    *
@@ -1,15 +1,34 @@
 package umm3601.todo;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 import io.javalin.http.BadRequestResponse;
+import umm3601.Cursor;
+import umm3601.IdIndex;
+import umm3601.ObjectId;
+import umm3601.StringDictionary;
+import umm3601.QueryTiming;
+import umm3601.metrics.QueryEvent;
 
 /**
  * A fake "todoDatabase" of todo info
@@ -21,30 +40,413 @@ import io.javalin.http.BadRequestResponse;
  */
 public class TodoDatabase {
 
+  /**
+   * The ways a `TodoDatabase` can store its todos.
+   */
+  public enum Storage {
+    /**
+     * An array of `Todo` objects, along with the JSON for each todo and an
+     * index of each owner and category. This is the fastest, but takes the
+     * most memory.
+     */
+    OBJECTS,
+
+    /**
+     * Each field in its own compact column (see `TodoColumns`). This takes
+     * far less memory, which matters for large datasets, at the cost of
+     * making a `Todo` (and its JSON) for each todo that's returned, and
+     * scanning the owner and category columns instead of using an index.
+     */
+    COLUMNAR,
+
+    /**
+     * The same columns as `COLUMNAR`, but in a file that's mapped into
+     * memory (see `TodoFile`) rather than on the heap. The file is made
+     * from the data file the first time it's needed (and again whenever
+     * the data file changes), so after that, starting up is nearly
+     * instant however many todos there are. There's no body index, so the
+     * `contains` filter checks each body in turn.
+     */
+    MAPPED;
+
+    /**
+     * Get the storage mode with the given name, ignoring case.
+     *
+     * @param name the name of a storage mode, e.g., "columnar"
+     * @return the storage mode with that name
+     * @throws IllegalArgumentException if there's no storage mode with that name
+     */
+    public static Storage named(String name) {
+      return valueOf(name.trim().toUpperCase());
+    }
+  }
+
+  // The number of todos.
+  private int size;
+
+  // The todos, if we're using `Storage.OBJECTS`; otherwise `null`.
   private Todo[] allTodos;
 
+  // The todos, if we're using `Storage.COLUMNAR` or `Storage.MAPPED`;
+  // otherwise `null`.
+  private TodoColumns columns;
+
+  // The JSON for each todo, serialized (as UTF-8) just once when the data
+  // is loaded, if we're using `Storage.OBJECTS`. The todos never change, so
+  // we can hand these bytes straight to the client instead of having
+  // Jackson serialize the same todos again for every request. (With
+  // `Storage.COLUMNAR` and `Storage.MAPPED`, each todo is serialized when
+  // it's needed.)
+  private byte[][] serializedTodos;
+  private final ObjectWriter todoWriter = new ObjectMapper().writerFor(Todo.class);
+
+  // Maps each todo's `_id` to its position in `allTodos`. This is built once
+  // when the data is loaded so that `getTodo()` doesn't have to scan every
+  // todo looking for a matching ID.
+  private IdIndex todoIds;
+
+  // A version number for the data, which changes whenever the data does.
+  // The data never changes once it's loaded, so this is just a checksum of
+  // the serialized todos; that way it's also the same every time the
+  // server loads the same data (e.g., after a restart).
+  private long dataVersion;
+
+  // Precomputed bitsets over the positions in `allTodos`, one for each
+  // status and (with `Storage.OBJECTS`) one for each (lower-cased) owner and
+  // category. Bit `i` is set if the todo at position `i` has that status,
+  // owner, or category. There are only a handful of distinct values for
+  // each of these fields, so `listTodos()` can combine filters by and-ing
+  // bitsets together instead of building a new array of todos for each
+  // filter.
+  private BitSet completeTodos;
+  private BitSet incompleteTodos;
+  private Map<String, BitSet> todosByOwner;
+  private Map<String, BitSet> todosByCategory;
+
+  // A trigram index over the todo bodies, used for the `contains` filter
+  // (except with `Storage.MAPPED`, where it's `null`).
+  private TrigramIndex bodyIndex;
+
+  // The precomputed sort order for each field `listTodos()` can sort on,
+  // keyed by the value of the `orderBy` query parameter.
+  private Map<String, SortPermutation> sortPermutations;
+
+  // The name we use for the (unsorted) order of `allTodos` in cursors.
+  private static final String UNSORTED = "none";
+
+  // The bitset we hand back when looking up an owner or category that no
+  // todo has. It's never modified, so it's safe to share.
+  private static final BitSet NO_TODOS = new BitSet();
+
   public TodoDatabase(String todoDataFile) throws IOException {
-    // The `.getResourceAsStream` method searches for the given resource in
-    // the classpath, and returns `null` if it isn't found. We want to throw
-    // an IOException if the data file isn't found, so we need to check for
-    // `null` ourselves, and throw an IOException if necessary.
-    InputStream resourceAsStream = TodoDatabase.class.getResourceAsStream(todoDataFile);
-    if (resourceAsStream == null) {
-      throw new IOException("Could not find " + todoDataFile);
-    }
-    InputStreamReader reader = new InputStreamReader(resourceAsStream);
+    this(todoDataFile, Storage.OBJECTS);
+  }
+
+  /**
+   * Construct a database holding the todos in the given data file, stored
+   * in the given way.
+   *
+   * @param todoDataFile the path of the data file
+   * @param storage      how to store the todos
+   * @throws IOException if the file can't be found or read
+   */
+  public TodoDatabase(String todoDataFile, Storage storage) throws IOException {
+    URL source = locate(todoDataFile);
+    if (storage == Storage.MAPPED) {
+      map(source, TodoFile.pathFor(source));
+    } else {
+      load(readTodos(source), storage);
+    }
+  }
+
+  /**
+   * Construct a database holding the todos in the given data file, stored
+   * with `Storage.MAPPED` in the given todo file. The todo file is made
+   * (or made again) from the data file if it isn't there or is out of
+   * date.
+   *
+   * @param todoDataFile the path of the data file
+   * @param mappedFile   the path of the todo file
+   * @throws IOException if either file can't be found, read, or written
+   */
+  public TodoDatabase(String todoDataFile, Path mappedFile) throws IOException {
+    map(locate(todoDataFile), mappedFile);
+  }
+
+  /**
+   * Construct a database holding the given todos, rather than reading them
+   * from a data file (e.g., a large synthetic dataset for benchmarking).
+   *
+   * @param todos the todos to hold; the database keeps this array, so it
+   *              shouldn't be changed afterwards
+   * @throws IOException if the todos can't be serialized to JSON
+   */
+  public TodoDatabase(Todo[] todos) throws IOException {
+    this(todos, Storage.OBJECTS);
+  }
+
+  /**
+   * Construct a database holding the given todos, stored in the given way.
+   *
+   * @param todos   the todos to hold; with `Storage.OBJECTS` the database
+   *                keeps this array, so it shouldn't be changed afterwards
+   * @param storage how to store the todos; with `Storage.MAPPED` they're
+   *                put in a temporary todo file that's deleted on exit
+   * @throws IOException if the todos can't be serialized to JSON, or the
+   *                     todo file can't be written
+   */
+  public TodoDatabase(Todo[] todos, Storage storage) throws IOException {
+    load(todos, storage);
+    if (storage == Storage.MAPPED) {
+      Path file = Files.createTempFile("todos", ".bin");
+      file.toFile().deleteOnExit();
+      // There's no data file, so there's nothing for the stamp to match.
+      long[] stamp = {0, 0, 0};
+      new TodoFile(dataVersion, columns, sortPermutations).write(file, stamp);
+      use(TodoFile.map(file, stamp));
+    }
+  }
+
+  /**
+   * Load the given todos, stored in the given way. With `Storage.MAPPED`,
+   * this builds the columns and sort permutations on the heap, ready to be
+   * written to a todo file.
+   *
+   * @param todos   the todos to hold
+   * @param storage how to store the todos
+   * @throws IOException if the todos can't be serialized to JSON
+   */
+  private void load(Todo[] todos, Storage storage) throws IOException {
+    size = todos.length;
+
+    // We work out the data version (and, with `Storage.OBJECTS`, keep the
+    // JSON) by serializing every todo, one at a time.
+    CRC32 checksum = new CRC32();
+    if (storage == Storage.OBJECTS) {
+      serializedTodos = new byte[size][];
+    }
+    for (int i = 0; i < size; i++) {
+      byte[] json = todoWriter.writeValueAsBytes(todos[i]);
+      checksum.update(json);
+      if (serializedTodos != null) {
+        serializedTodos[i] = json;
+      }
+    }
+    dataVersion = checksum.getValue();
+
+    todoIds = new IdIndex(size, i -> todos[i]._id);
+
+    // Give each distinct owner and category a code. The todos read from a
+    // data file already share one copy of each value, but todos made some
+    // other way might not, so (with `Storage.OBJECTS`, which keeps the
+    // todos) we make sure they do.
+    StringDictionary owners = new StringDictionary();
+    StringDictionary categories = new StringDictionary();
+    int[] ownerCodes = new int[size];
+    int[] categoryCodes = new int[size];
+    for (int i = 0; i < size; i++) {
+      ownerCodes[i] = owners.encode(todos[i].owner);
+      categoryCodes[i] = categories.encode(todos[i].category);
+      if (storage == Storage.OBJECTS) {
+        todos[i].owner = owners.value(ownerCodes[i]);
+        todos[i].category = categories.value(categoryCodes[i]);
+      }
+    }
+    DictionaryColumn ownerColumn = new DictionaryColumn(owners, IntBuffer.wrap(ownerCodes));
+    DictionaryColumn categoryColumn = new DictionaryColumn(categories, IntBuffer.wrap(categoryCodes));
+
+    String[] bodies = Arrays.stream(todos).map(todo -> todo.body).toArray(String[]::new);
+    if (storage == Storage.OBJECTS) {
+      allTodos = todos;
+      completeTodos = new BitSet(size);
+      for (int i = 0; i < size; i++) {
+        completeTodos.set(i, todos[i].status);
+      }
+      todosByOwner = buildIndex(ownerColumn);
+      todosByCategory = buildIndex(categoryColumn);
+      bodyIndex = new TrigramIndex(bodies);
+    } else {
+      // The columns have their own status bitset, and scan their owner and
+      // category columns rather than keeping an index, and the body index
+      // reads the bodies back out of the columns, so that we don't keep
+      // any of the `Todo` objects (or their strings) around.
+      columns = new TodoColumns(todos, todoIds, ownerColumn, categoryColumn);
+      completeTodos = columns.complete();
+      if (storage == Storage.COLUMNAR) {
+        bodyIndex = new TrigramIndex(bodies, columns::body);
+      }
+    }
+    incompleteTodos = (BitSet) completeTodos.clone();
+    incompleteTodos.flip(0, size);
+
+    // These are the same orders that `sortTodos()` uses.
+    sortPermutations = new LinkedHashMap<>();
+    sortPermutations.put("owner", new SortPermutation(todos, (x, y) -> x.owner.compareTo(y.owner)));
+    sortPermutations.put("body", new SortPermutation(todos, (x, y) -> x.body.compareTo(y.body)));
+    sortPermutations.put("status", new SortPermutation(todos, (x, y) -> Boolean.compare(x.status, y.status)));
+    sortPermutations.put("category", new SortPermutation(todos, (x, y) -> x.category.compareTo(y.category)));
+  }
+
+  /**
+   * Map the todo file for the given data file into memory, making it first
+   * if it isn't there or is out of date, and use it to answer queries.
+   *
+   * @param source the location of the data file
+   * @param file   the path of the todo file
+   * @throws IOException if either file can't be read, or the todo file
+   *                     can't be written
+   */
+  private void map(URL source, Path file) throws IOException {
+    long[] stamp = TodoFile.stamp(source);
+    TodoFile todoFile = TodoFile.map(file, stamp);
+    if (todoFile == null) {
+      // Making the todo file means loading every todo (and sorting them)
+      // once, on the heap; after that, we only ever map it.
+      load(readTodos(source), Storage.MAPPED);
+      new TodoFile(dataVersion, columns, sortPermutations).write(file, stamp);
+      todoFile = TodoFile.map(file, stamp);
+    }
+    use(todoFile);
+  }
+
+  /**
+   * Answer queries from the given (mapped) todo file, dropping anything
+   * left on the heap from making it.
+   *
+   * @param todoFile the todo file
+   */
+  private void use(TodoFile todoFile) {
+    columns = todoFile.columns();
+    size = columns.size();
+    dataVersion = todoFile.dataVersion();
+    todoIds = columns.ids();
+    completeTodos = columns.complete();
+    incompleteTodos = (BitSet) completeTodos.clone();
+    incompleteTodos.flip(0, size);
+    sortPermutations = todoFile.sortPermutations();
+    allTodos = null;
+    serializedTodos = null;
+    todosByOwner = null;
+    todosByCategory = null;
+    bodyIndex = null;
+  }
+
+  /**
+   * Find a JSON data file, either on the classpath (like the bundled
+   * `todos.json`) or, failing that, in the file system (like a dataset made
+   * by `DatasetGenerator`).
+   *
+   * @param todoDataFile the path of the data file
+   * @return the location of the data file
+   * @throws IOException if the file can't be found
+   */
+  private static URL locate(String todoDataFile) throws IOException {
+    // The `.getResource` method searches for the given resource in the
+    // classpath, and returns `null` if it isn't found. In that case we look
+    // for the file in the file system, and if it isn't there either we
+    // throw an IOException.
+    URL resource = TodoDatabase.class.getResource(todoDataFile);
+    if (resource == null) {
+      Path path = Path.of(todoDataFile);
+      if (!Files.isRegularFile(path)) {
+        throw new IOException("Could not find " + todoDataFile);
+      }
+      resource = path.toUri().toURL();
+    }
+    return resource;
+  }
+
+  /**
+   * Read the todos from a JSON data file.
+   *
+   * @param source the location of the data file
+   * @return the todos in the file
+   * @throws IOException if the file can't be read
+   */
+  private static Todo[] readTodos(URL source) throws IOException {
+    InputStreamReader reader = new InputStreamReader(new BufferedInputStream(source.openStream()));
     // A Jackson JSON mapper knows how to parse JSON into sensible 'Todo'
     // objects.
     ObjectMapper objectMapper = new ObjectMapper();
-    // Read our user data file into an array of `Todo` objects.
-    allTodos = objectMapper.readValue(reader, Todo[].class);
+    // Read our data file into an array of `Todo` objects, sharing one copy
+    // of each distinct owner and category among all the todos.
+    Todo[] todos = StringDictionary.interning(objectMapper.readerFor(Todo[].class)).readValue(reader);
 
     // Close the `reader` to free resources.
     reader.close();
+    return todos;
+  }
+
+  /**
+   * Build an index from the lower-cased value of some field to a bitset
+   * of the positions of the todos having that value.
+   *
+   * @param column the field's value for each todo
+   * @return a map from each lower-cased field value to the bitset of
+   *         todos having that value
+   */
+  private static Map<String, BitSet> buildIndex(DictionaryColumn column) {
+    // Group the todos by code first, so that each distinct value is only
+    // lower-cased once; values differing only in case then share a bitset.
+    StringDictionary dictionary = column.dictionary();
+    BitSet[] todosByCode = new BitSet[dictionary.size()];
+    for (int code = 0; code < todosByCode.length; code++) {
+      todosByCode[code] = new BitSet(column.size());
+    }
+    for (int i = 0; i < column.size(); i++) {
+      todosByCode[column.code(i)].set(i);
+    }
+    Map<String, BitSet> index = new HashMap<>();
+    for (int code = 0; code < todosByCode.length; code++) {
+      index.merge(dictionary.value(code).toLowerCase(), todosByCode[code], (todos, more) -> {
+        todos.or(more);
+        return todos;
+      });
+    }
+    return index;
   }
 
   public int size() {
-    return allTodos.length;
+    return size;
+  }
+
+  /**
+   * Get the todo at the given position, making it from the columns if
+   * we're using `Storage.COLUMNAR` or `Storage.MAPPED`.
+   *
+   * @param position the position of the todo
+   * @return the todo at that position
+   */
+  private Todo todoAt(int position) {
+    return (allTodos != null) ? allTodos[position] : columns.todoAt(position);
+  }
+
+  /**
+   * Get the (UTF-8) JSON for the todo at the given position, serializing
+   * it if we're using `Storage.COLUMNAR` or `Storage.MAPPED`.
+   *
+   * @param position the position of the todo
+   * @return the JSON for the todo at that position
+   */
+  private byte[] serializedTodoAt(int position) {
+    if (serializedTodos != null) {
+      return serializedTodos[position];
+    }
+    try {
+      return todoWriter.writeValueAsBytes(columns.todoAt(position));
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Get the version of the data in this database. Any change to the data
+   * changes the version.
+   *
+   * @return the version of the data
+   */
+  public long getDataVersion() {
+    return dataVersion;
   }
 
   /**
@@ -55,7 +457,76 @@ public class TodoDatabase {
    * @return the todo with the given ID, or null if there is no todo with that ID
    */
   public Todo getTodo(String id) {
-    return Arrays.stream(allTodos).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+    ObjectId objectId = ObjectId.tryParse(id);
+    return objectId == null ? null : getTodo(objectId);
+  }
+
+  /**
+   * Get the single todo specified by the given ID. Return `null` if there is no
+   * todo with that ID.
+   *
+   * @param id the ID of the desired todo
+   * @return the todo with the given ID, or null if there is no todo with that ID
+   */
+  public Todo getTodo(ObjectId id) {
+    int position = todoIds.position(id);
+    return position < 0 ? null : todoAt(position);
+  }
+
+  /**
+   * Get the (UTF-8) JSON for the single todo specified by the given ID.
+   * Return `null` if there is no todo with that ID.
+   *
+   * @param id the ID of the desired todo
+   * @return the JSON for the todo with the given ID, or null if there is no
+   *         todo with that ID
+   */
+  public byte[] getSerializedTodo(String id) {
+    ObjectId objectId = ObjectId.tryParse(id);
+    return objectId == null ? null : getSerializedTodo(objectId);
+  }
+
+  /**
+   * Get the (UTF-8) JSON for the single todo specified by the given ID.
+   * Return `null` if there is no todo with that ID.
+   *
+   * @param id the ID of the desired todo
+   * @return the JSON for the todo with the given ID, or null if there is no
+   *         todo with that ID
+   */
+  public byte[] getSerializedTodo(ObjectId id) {
+    int position = todoIds.position(id);
+    return position < 0 ? null : serializedTodoAt(position);
+  }
+
+  /**
+   * Check that the query params are valid, without running the query, so
+   * that a bad query can be turned away before anything else is done with
+   * it (e.g., before it's given an ETag). This checks the same things, in
+   * the same order, as `listTodos()` does, so it reports the same error.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @throws BadRequestResponse if any of the params is invalid
+   */
+  public void validateQuery(Map<String, List<String>> queryParams) {
+    if (queryParams.containsKey("status")) {
+      statusBitSet(queryParams.get("status").get(0));
+    }
+    String targetOrder = UNSORTED;
+    if (queryParams.containsKey("orderBy")) {
+      targetOrder = queryParams.get("orderBy").get(0);
+      sortPermutation(targetOrder);
+    }
+    if (queryParams.containsKey("limit")) {
+      parseLimit(queryParams.get("limit").get(0));
+    }
+    if (queryParams.containsKey("pageSize")) {
+      Cursor.parsePageSize(queryParams.get("pageSize").get(0));
+    }
+    if (queryParams.containsKey("cursor")) {
+      Cursor.decode(queryParams.get("cursor").get(0), targetOrder);
+      Cursor.returned(queryParams.get("cursor").get(0));
+    }
   }
 
   /**
@@ -65,45 +536,318 @@ public class TodoDatabase {
    * @return an array of all the todos matching the given criteria
    */
   public Todo[] listTodos(Map<String, List<String>> queryParams) {
-    Todo[] filteredTodos = allTodos;
+    return listTodos(queryParams, QueryTiming.DISABLED);
+  }
+
+  /**
+   * Get an array of all the todos satisfying the queries in the params,
+   * recording how long each stage of the query takes.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param timing      where to record the time each stage takes
+   * @return an array of all the todos matching the given criteria
+   */
+  public Todo[] listTodos(Map<String, List<String>> queryParams, QueryTiming timing) {
+    QueryEvent event = QueryEvent.start("todos");
+    TodoQuery query = parseQuery(queryParams, timing);
+
+    int matchCount = timing.count(query.matches);
+    long start = timing.start();
+    // When we're both sorting and limiting, we only need the first
+    // `limit` todos in sorted order, which is much cheaper than
+    // sorting every matching todo and then throwing most of them away.
+    if (query.permutation != null) {
+      Todo[] todos = todosAt(query.permutation.sortedPositions(query.matches, query.start, query.limit));
+      timing.record("orderBy", start, matchCount, todos.length);
+      event.finish(queryParams, todos.length);
+      return todos;
+    } else {
+      Todo[] todos = todosAt(query.matches, query.start, query.limit);
+      // This is only a stage of its own if it actually limited the todos
+      // (or picked out a page of them).
+      if (query.limit != Integer.MAX_VALUE || query.start > 0) {
+        timing.record("limit", start, matchCount, todos.length);
+      }
+      event.finish(queryParams, todos.length);
+      return todos;
+    }
+  }
+
+  /**
+   * Hand each of the todos satisfying the queries in the params to `action`,
+   * in the same order as `listTodos()` would return them. Unlike
+   * `listTodos()`, this never builds an array of all the matching todos,
+   * so it's a better fit for (very) large results that are going to be
+   * written out one at a time anyway.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param action      the action to perform on each matching todo
+   */
+  public void forEachTodo(Map<String, List<String>> queryParams, Consumer<? super Todo> action) {
+    QueryEvent event = QueryEvent.start("todos");
+    int count = forEachPosition(parseQuery(queryParams, QueryTiming.DISABLED),
+        position -> action.accept(todoAt(position)));
+    event.finish(queryParams, count);
+  }
+
+  /**
+   * Hand the (UTF-8) JSON for each of the todos satisfying the queries in
+   * the params to `action`, in the same order as `listTodos()` would
+   * return them.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param action      the action to perform on the JSON for each matching todo
+   */
+  public void forEachSerializedTodo(Map<String, List<String>> queryParams, Consumer<? super byte[]> action) {
+    QueryEvent event = QueryEvent.start("todos");
+    int count = forEachPosition(parseQuery(queryParams, QueryTiming.DISABLED),
+        position -> action.accept(serializedTodoAt(position)));
+    event.finish(queryParams, count);
+  }
+
+  /**
+   * Hand the position of each of the todos selected by a query to `action`,
+   * in order.
+   *
+   * @param query  the parsed query
+   * @param action the action to perform on the position of each selected todo
+   * @return the number of todos selected
+   */
+  private int forEachPosition(TodoQuery query, IntConsumer action) {
+    if (query.permutation != null) {
+      int[] positions = query.permutation.sortedPositions(query.matches, query.start, query.limit);
+      for (int position : positions) {
+        action.accept(position);
+      }
+      return positions.length;
+    } else {
+      int count = 0;
+      for (int i = query.matches.nextSetBit(query.start); i >= 0 && count < query.limit;
+          i = query.matches.nextSetBit(i + 1)) {
+        action.accept(i);
+        count++;
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Work out which todos satisfy the filters in the query params, and how
+   * they should be ordered and limited.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param timing      where to record the time each filter takes
+   * @return the parsed query
+   */
+  private TodoQuery parseQuery(Map<String, List<String>> queryParams, QueryTiming timing) {
+    // Start with every todo, and then clear the bits for the todos that
+    // don't match each of the filters. The actual `Todo` objects are only
+    // pulled out once, after all the filters have been applied.
+    BitSet matches = new BitSet(size);
+    matches.set(0, size);
 
     // Filter status if defined
     if (queryParams.containsKey("status")) {
       String targetStatus = queryParams.get("status").get(0);
-      filteredTodos = filterTodosByStatus(filteredTodos, targetStatus);
+      int before = timing.count(matches);
+      long start = timing.start();
+      matches.and(statusBitSet(targetStatus));
+      timing.record("status", start, before, matches);
     }
     // Filter body if defined
     if (queryParams.containsKey("contains")) {
       String targetBody = queryParams.get("contains").get(0);
-      filteredTodos = filterTodosByBody(filteredTodos, targetBody);
+      int before = timing.count(matches);
+      long start = timing.start();
+      if (bodyIndex != null) {
+        bodyIndex.retainContaining(matches, targetBody);
+      } else {
+        columns.retainContaining(matches, targetBody);
+      }
+      timing.record("contains", start, before, matches);
     }
     // Filter owner if defined
     if (queryParams.containsKey("owner")) {
       String targetOwner = queryParams.get("owner").get(0);
-      filteredTodos = filterTodosByOwner(filteredTodos, targetOwner);
+      int before = timing.count(matches);
+      long start = timing.start();
+      if (columns != null) {
+        columns.retainOwner(matches, targetOwner);
+      } else {
+        matches.and(lookup(todosByOwner, targetOwner));
+      }
+      timing.record("owner", start, before, matches);
     }
     // Filter category if defined
     if (queryParams.containsKey("category")) {
       String targetCategory = queryParams.get("category").get(0);
-      filteredTodos = filterTodosByCategory(filteredTodos, targetCategory);
+      int before = timing.count(matches);
+      long start = timing.start();
+      if (columns != null) {
+        columns.retainCategory(matches, targetCategory);
+      } else {
+        matches.and(lookup(todosByCategory, targetCategory));
+      }
+      timing.record("category", start, before, matches);
     }
-    // Sort todo with specific order if defined
+
+    // Look up the sort order (if defined) before the limit, so that a bad
+    // `orderBy` is reported before a bad `limit`.
+    String targetOrder = UNSORTED;
+    SortPermutation permutation = null;
     if (queryParams.containsKey("orderBy")) {
-      String targetOrder = queryParams.get("orderBy").get(0);
-      filteredTodos = sortTodos(filteredTodos, targetOrder);
+      targetOrder = queryParams.get("orderBy").get(0);
+      permutation = sortPermutation(targetOrder);
+    }
+    // Start after the end of the previous page if we were given a cursor.
+    int start = 0;
+    int returned = 0;
+    if (queryParams.containsKey("cursor")) {
+      start = Cursor.decode(queryParams.get("cursor").get(0), targetOrder);
+      returned = Cursor.returned(queryParams.get("cursor").get(0));
     }
-    // Filter todos within specific limit if defined
+    // Limit the number of todos if defined; without a limit, we want
+    // every matching todo. The limit covers all the pages together, so
+    // we only have what the earlier pages didn't use. A `pageSize` limits
+    // the number of todos on this page in just the same way.
+    int targetLimit = Integer.MAX_VALUE;
     if (queryParams.containsKey("limit")) {
-      String limitParam = queryParams.get("limit").get(0);
-      try {
-        int targetLimit = Integer.parseInt(limitParam);
-        filteredTodos = filterTodosByLimit(filteredTodos, targetLimit);
-      } catch (NumberFormatException e) {
-        throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be parsed to an integer");
-      }
+      targetLimit = Math.max(0, parseLimit(queryParams.get("limit").get(0)) - returned);
+    }
+    if (queryParams.containsKey("pageSize")) {
+      targetLimit = Math.min(targetLimit, Cursor.parsePageSize(queryParams.get("pageSize").get(0)));
     }
 
-    return filteredTodos;
+    return new TodoQuery(matches, permutation, start, targetLimit);
+  }
+
+  /**
+   * Get the cursor for the page of todos after the given page, which should
+   * be the result of calling `listTodos()` with the same query parameters.
+   * Return `null` if there isn't a next page, either because we weren't
+   * asked for a `pageSize`, because this page wasn't full, or because the
+   * pages so far have used up the `limit`.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param page        the todos that `listTodos()` returned for that query
+   * @return the cursor for the next page, or `null` if there isn't one
+   */
+  public String nextCursor(Map<String, List<String>> queryParams, Todo[] page) {
+    if (!queryParams.containsKey("pageSize") || page.length == 0
+        || page.length < Cursor.parsePageSize(queryParams.get("pageSize").get(0))) {
+      return null;
+    }
+    int returned = page.length;
+    if (queryParams.containsKey("cursor")) {
+      returned += Cursor.returned(queryParams.get("cursor").get(0));
+    }
+    if (queryParams.containsKey("limit") && returned >= parseLimit(queryParams.get("limit").get(0))) {
+      return null;
+    }
+    int lastPosition = todoIds.position(page[page.length - 1]._id);
+    if (queryParams.containsKey("orderBy")) {
+      String targetOrder = queryParams.get("orderBy").get(0);
+      return Cursor.encode(targetOrder, sortPermutation(targetOrder).rank(lastPosition), returned);
+    } else {
+      return Cursor.encode(UNSORTED, lastPosition, returned);
+    }
+  }
+
+  /**
+   * Parse the value of the `limit` query parameter.
+   *
+   * @param limitParam the value of the `limit` query parameter
+   * @return the limit as an integer
+   */
+  private int parseLimit(String limitParam) {
+    int targetLimit;
+    try {
+      targetLimit = Integer.parseInt(limitParam);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be parsed to an integer");
+    }
+    if (targetLimit < 0) {
+      throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be negative");
+    }
+    return targetLimit;
+  }
+
+  /**
+   * Get the precomputed bitset of the todos having the target status.
+   *
+   * @param targetStatus the target status, either "complete" or "incomplete"
+   * @return the bitset of the todos having that status
+   */
+  private BitSet statusBitSet(String targetStatus) {
+    switch (targetStatus.toLowerCase()) {
+      case "complete":
+        return completeTodos;
+      case "incomplete":
+        return incompleteTodos;
+      default:
+        throw new BadRequestResponse("Specified status '" + targetStatus + "' is not a valid todo status");
+    }
+  }
+
+  /**
+   * Look up the bitset of the todos having the given value in an index.
+   * The comparison ignores case, just like `filterTodosByOwner()` and
+   * `filterTodosByCategory()`.
+   *
+   * @param index       the index to look in
+   * @param targetValue the value to look for
+   * @return the bitset of the matching todos, which will be empty if no
+   *         todo has that value
+   */
+  private BitSet lookup(Map<String, BitSet> index, String targetValue) {
+    return index.getOrDefault(targetValue.toLowerCase(), NO_TODOS);
+  }
+
+  /**
+   * Get the precomputed sort order for the given `orderBy` value.
+   *
+   * @param targetOrder the target order to sort
+   * @return the sort permutation for that order
+   */
+  private SortPermutation sortPermutation(String targetOrder) {
+    SortPermutation permutation = sortPermutations.get(targetOrder);
+    if (permutation == null) {
+      throw new BadRequestResponse("Specified order '" + targetOrder + "' is not an applicable todo attribute");
+    }
+    return permutation;
+  }
+
+  /**
+   * Get the todos at the given positions.
+   *
+   * @param positions the positions of the desired todos
+   * @return an array of the todos at those positions, in the same order
+   */
+  private Todo[] todosAt(int[] positions) {
+    Todo[] todos = new Todo[positions.length];
+    for (int i = 0; i < positions.length; i++) {
+      todos[i] = todoAt(positions[i]);
+    }
+    return todos;
+  }
+
+  /**
+   * Get (at most `targetLimit` of) the todos whose bits are set in the
+   * given bitset, starting at position `start`.
+   *
+   * @param matches     the bitset of the desired todos
+   * @param start       the position of the first todo that may be included
+   * @param targetLimit the maximum number of todos to return
+   * @return an array of the first `targetLimit` of those todos, in the same
+   *         order as their positions
+   */
+  private Todo[] todosAt(BitSet matches, int start, int targetLimit) {
+    Todo[] todos = new Todo[Math.min(matches.cardinality(), targetLimit)];
+    int count = 0;
+    for (int i = matches.nextSetBit(start); i >= 0 && count < todos.length; i = matches.nextSetBit(i + 1)) {
+      todos[count++] = todoAt(i);
+    }
+    return (count == todos.length) ? todos : Arrays.copyOf(todos, count);
   }
 
   /**
@@ -193,13 +937,37 @@ public class TodoDatabase {
   }
 
   /**
-   * Get an array of all the todos within specific limit.
+   * Get an array of all the todos within specific limit. If the limit is
+   * larger than the number of todos, we just get all the todos.
    *
    * @param todos         the list of todos to filter by limit
    * @param targetLimit  the target limit of todo to return
    * @return an array of all the todos from the given list within the target limit
    */
   public Todo[] filterTodosByLimit(Todo[] todos, int targetLimit) {
-    return Arrays.copyOfRange(Arrays.stream(todos).toArray(Todo[]::new), 0, targetLimit);
+    return Arrays.copyOf(todos, Math.min(todos.length, targetLimit));
+  }
+
+  /**
+   * A parsed `listTodos()` query: the todos that satisfy its filters, and
+   * how they should be ordered and limited.
+   */
+  private static final class TodoQuery {
+    // The positions of the todos that satisfy all the filters.
+    private final BitSet matches;
+    // The order to put them in, or `null` to leave them in their
+    // original order.
+    private final SortPermutation permutation;
+    // The position (or rank, if sorted) of the first todo to include.
+    private final int start;
+    // The maximum number of todos to include.
+    private final int limit;
+
+    TodoQuery(BitSet matches, SortPermutation permutation, int start, int limit) {
+      this.matches = matches;
+      this.permutation = permutation;
+      this.start = start;
+      this.limit = limit;
+    }
   }
 }
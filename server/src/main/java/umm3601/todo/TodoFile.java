@@ -0,0 +1,463 @@
+package umm3601.todo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import umm3601.IdIndex;
+import umm3601.StringDictionary;
+
+/**
+ * A binary file holding everything a `TodoDatabase` needs to answer
+ * queries with `Storage.MAPPED`: the todos' columns (see `TodoColumns`),
+ * the index of their IDs, and their sort permutations.
+ * <p>
+ * The file is memory-mapped rather than read, so the todos live outside
+ * the heap, where the garbage collector never has to look at them, and the
+ * operating system only reads in (and keeps cached, even across restarts)
+ * the parts that are actually used. Loading the database is then just a
+ * matter of mapping the file, however many todos there are. The file is
+ * made, once, from the JSON data file, and made again whenever the data
+ * file changes.
+ * <p>
+ * Everything is big-endian, in this order:
+ * <ul>
+ * <li>a header: `MAGIC`, `FORMAT_VERSION`, the stamp of the data file the
+ * todos came from (see `stamp()`), the data version, and the number of
+ * todos</li>
+ * <li>the owner and category dictionaries, and the names of the sort
+ * permutations</li>
+ * <li>the ID index, the complete bitset, the owner and category codes,
+ * the body offsets and bytes, and the order and ranks of each sort
+ * permutation, each starting on an 8-byte boundary</li>
+ * </ul>
+ * Each part is mapped separately, since a single mapping can't be more than
+ * 2GB.
+ */
+final class TodoFile {
+
+  // Marks the start of a todo file ("TODO" in ASCII).
+  private static final int MAGIC = 0x544f444f;
+
+  // Changes whenever the layout does, so that files in an old layout are
+  // made again rather than misread.
+  private static final int FORMAT_VERSION = 2;
+
+  // The size of the buffer used to write the file.
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final long dataVersion;
+  private final TodoColumns columns;
+  private final Map<String, SortPermutation> sortPermutations;
+
+  /**
+   * Construct a todo file's contents.
+   *
+   * @param dataVersion      the version of the data
+   * @param columns          the todos, in columns
+   * @param sortPermutations the sort permutation for each `orderBy` value
+   */
+  TodoFile(long dataVersion, TodoColumns columns, Map<String, SortPermutation> sortPermutations) {
+    this.dataVersion = dataVersion;
+    this.columns = columns;
+    this.sortPermutations = sortPermutations;
+  }
+
+  /**
+   * Get the version of the data.
+   *
+   * @return the data version
+   */
+  long dataVersion() {
+    return dataVersion;
+  }
+
+  /**
+   * Get the todos.
+   *
+   * @return the todos, in columns
+   */
+  TodoColumns columns() {
+    return columns;
+  }
+
+  /**
+   * Get the sort permutations.
+   *
+   * @return the sort permutation for each `orderBy` value
+   */
+  Map<String, SortPermutation> sortPermutations() {
+    return sortPermutations;
+  }
+
+  /**
+   * Get where to keep the todo file for a data file: next to it if it's in
+   * the file system, and otherwise (e.g., if it's in a jar) in the
+   * temporary directory.
+   *
+   * @param source the location of the data file
+   * @return the path of the todo file
+   * @throws IOException if the data file's location isn't a valid path
+   */
+  static Path pathFor(URL source) throws IOException {
+    if ("file".equals(source.getProtocol())) {
+      try {
+        Path dataFile = Path.of(source.toURI());
+        return dataFile.resolveSibling(dataFile.getFileName() + ".bin");
+      } catch (URISyntaxException e) {
+        throw new IOException("Invalid data file location " + source, e);
+      }
+    }
+    String name = source.getPath().substring(source.getPath().lastIndexOf('/') + 1);
+    return Path.of(System.getProperty("java.io.tmpdir"), "umm3601-" + name + ".bin");
+  }
+
+  /**
+   * Get the "stamp" of a data file, which tells us whether a todo file made
+   * from it is still up to date: its length, last-modified time, and a
+   * checksum of its contents.
+   * <p>
+   * The checksum means reading the whole data file every time, but that's
+   * far quicker than parsing it, and without it an edit that kept the
+   * file's length and last-modified time (e.g., a copy that preserves
+   * times) would leave us serving the old todos.
+   *
+   * @param source the location of the data file
+   * @return the stamp of the data file
+   * @throws IOException if the data file can't be found or read
+   */
+  static long[] stamp(URL source) throws IOException {
+    URLConnection connection = source.openConnection();
+    CRC32C checksum = new CRC32C();
+    try (InputStream in = connection.getInputStream()) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+        checksum.update(buffer, 0, read);
+      }
+    }
+    return new long[] {connection.getContentLengthLong(), connection.getLastModified(), checksum.getValue()};
+  }
+
+  /**
+   * Write this todo file. It's written to a temporary file that then
+   * replaces `file`, so a database that's mapping `file` never sees it half
+   * written.
+   *
+   * @param file  the path to write to
+   * @param stamp the stamp of the data file the todos came from (see
+   *              `stamp()`)
+   * @throws IOException if the file can't be written
+   */
+  void write(Path file, long[] stamp) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        Output out = new Output(channel);
+        out.putInt(MAGIC);
+        out.putInt(FORMAT_VERSION);
+        for (long part : stamp) {
+          out.putLong(part);
+        }
+        out.putLong(dataVersion);
+        out.putInt(columns.size());
+        out.putDictionary(columns.owners().dictionary());
+        out.putDictionary(columns.categories().dictionary());
+        out.putInt(sortPermutations.size());
+        for (String name : sortPermutations.keySet()) {
+          out.putString(name);
+        }
+
+        IdIndex ids = columns.ids();
+        out.putLongs(ids.highs());
+        out.putInts(ids.lows());
+        out.putInt(ids.slots().limit());
+        out.putInts(ids.slots());
+        long[] completeWords = columns.complete().toLongArray();
+        out.putInt(completeWords.length);
+        out.putLongs(LongBuffer.wrap(completeWords));
+        out.putInts(columns.owners().codes());
+        out.putInts(columns.categories().codes());
+        out.putInts(columns.bodyOffsets());
+        out.putBytes(columns.bodyBytes());
+        for (SortPermutation permutation : sortPermutations.values()) {
+          out.putInts(permutation.order());
+          out.putInts(permutation.ranks());
+        }
+        out.flush();
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Map a todo file into memory, if it's there and up to date.
+   *
+   * @param file  the path of the todo file
+   * @param stamp the stamp of the data file the todos should have come
+   *              from (see `stamp()`)
+   * @return the mapped todo file, or `null` if there's no such file, or it
+   *         was made from a different data file (or version of the data
+   *         file), or in a different layout
+   * @throws IOException if the file can't be read
+   */
+  static TodoFile map(Path file, long[] stamp) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      Input in = new Input(channel);
+      if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+        return null;
+      }
+      for (long part : stamp) {
+        if (in.getLong() != part) {
+          return null;
+        }
+      }
+      long dataVersion = in.getLong();
+      int size = in.getInt();
+      StringDictionary owners = in.getDictionary();
+      StringDictionary categories = in.getDictionary();
+      String[] sortNames = new String[in.getInt()];
+      for (int i = 0; i < sortNames.length; i++) {
+        sortNames[i] = in.getString();
+      }
+
+      // The mappings stay valid after the channel is closed.
+      IdIndex ids = new IdIndex(in.mapLongs(size), in.mapInts(size), in.mapInts(in.getInt()));
+      BitSet complete = BitSet.valueOf(in.mapLongs(in.getInt()));
+      DictionaryColumn ownerColumn = new DictionaryColumn(owners, in.mapInts(size));
+      DictionaryColumn categoryColumn = new DictionaryColumn(categories, in.mapInts(size));
+      IntBuffer bodyOffsets = in.mapInts(size + 1);
+      ByteBuffer bodyBytes = in.mapBytes(bodyOffsets.get(size));
+      TodoColumns columns = new TodoColumns(ids, complete, ownerColumn, categoryColumn, bodyOffsets, bodyBytes);
+      Map<String, SortPermutation> sortPermutations = new LinkedHashMap<>();
+      for (String name : sortNames) {
+        sortPermutations.put(name, new SortPermutation(in.mapInts(size), in.mapInts(size)));
+      }
+      return new TodoFile(dataVersion, columns, sortPermutations);
+    } catch (NoSuchFileException | EOFException e) {
+      // There's no todo file yet, or it's been cut short (so it can't be the
+      // file we wrote, which only ever appears once it's complete).
+      return null;
+    }
+  }
+
+  /**
+   * Writes the parts of a todo file to a channel, through a buffer.
+   */
+  private static final class Output {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    Output(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Make sure the buffer has room for at least `bytes` more bytes.
+     *
+     * @param bytes the number of bytes needed
+     * @throws IOException if the buffer can't be written out
+     */
+    private void reserve(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+    }
+
+    /**
+     * Write out everything in the buffer.
+     *
+     * @throws IOException if the buffer can't be written out
+     */
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    void putInt(int value) throws IOException {
+      reserve(Integer.BYTES);
+      buffer.putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+      reserve(Long.BYTES);
+      buffer.putLong(value);
+    }
+
+    void putString(String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      putInt(bytes.length);
+      putBytes(ByteBuffer.wrap(bytes));
+    }
+
+    void putDictionary(StringDictionary dictionary) throws IOException {
+      putInt(dictionary.size());
+      for (int code = 0; code < dictionary.size(); code++) {
+        putString(dictionary.value(code));
+      }
+    }
+
+    /**
+     * Pad with zeroes up to the next 8-byte boundary, where every array
+     * starts, so that the mapped arrays are aligned.
+     *
+     * @throws IOException if the buffer can't be written out
+     */
+    private void align() throws IOException {
+      while ((channel.position() + buffer.position()) % Long.BYTES != 0) {
+        reserve(1);
+        buffer.put((byte) 0);
+      }
+    }
+
+    void putInts(IntBuffer values) throws IOException {
+      align();
+      IntBuffer remaining = values.duplicate().rewind();
+      while (remaining.hasRemaining()) {
+        reserve(Integer.BYTES);
+        int count = Math.min(remaining.remaining(), buffer.remaining() / Integer.BYTES);
+        buffer.asIntBuffer().put(remaining.slice(remaining.position(), count));
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        remaining.position(remaining.position() + count);
+      }
+    }
+
+    void putLongs(LongBuffer values) throws IOException {
+      align();
+      LongBuffer remaining = values.duplicate().rewind();
+      while (remaining.hasRemaining()) {
+        reserve(Long.BYTES);
+        int count = Math.min(remaining.remaining(), buffer.remaining() / Long.BYTES);
+        buffer.asLongBuffer().put(remaining.slice(remaining.position(), count));
+        buffer.position(buffer.position() + count * Long.BYTES);
+        remaining.position(remaining.position() + count);
+      }
+    }
+
+    void putBytes(ByteBuffer values) throws IOException {
+      ByteBuffer remaining = values.duplicate().rewind();
+      while (remaining.hasRemaining()) {
+        reserve(1);
+        int count = Math.min(remaining.remaining(), buffer.remaining());
+        buffer.put(remaining.slice(remaining.position(), count));
+        remaining.position(remaining.position() + count);
+      }
+    }
+  }
+
+  /**
+   * Reads (and maps) the parts of a todo file from a channel, in the same
+   * order `Output` wrote them.
+   */
+  private static final class Input {
+    private final FileChannel channel;
+    private long position;
+
+    Input(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Map the next `bytes` bytes of the file, and move past them.
+     *
+     * @param bytes the number of bytes to map
+     * @return the mapped bytes
+     * @throws IOException if the file is too short, or can't be mapped
+     */
+    private ByteBuffer map(long bytes) throws IOException {
+      if (bytes < 0 || position + bytes > channel.size()) {
+        throw new EOFException("Todo file is cut short");
+      }
+      ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+      position += bytes;
+      return mapped;
+    }
+
+    /**
+     * Move to the next 8-byte boundary, where every array starts.
+     */
+    private void align() {
+      position = (position + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+    }
+
+    /**
+     * Read (rather than map) the next few bytes of the file.
+     *
+     * @param bytes the number of bytes to read
+     * @return the bytes read
+     * @throws IOException if the file is too short, or can't be read
+     */
+    private ByteBuffer read(int bytes) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(bytes);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) {
+          throw new EOFException("Todo file is cut short");
+        }
+      }
+      position += bytes;
+      return buffer.flip();
+    }
+
+    int getInt() throws IOException {
+      return read(Integer.BYTES).getInt();
+    }
+
+    long getLong() throws IOException {
+      return read(Long.BYTES).getLong();
+    }
+
+    String getString() throws IOException {
+      int length = getInt();
+      if (length < 0 || position + length > channel.size()) {
+        throw new EOFException("Todo file is cut short");
+      }
+      return StandardCharsets.UTF_8.decode(read(length)).toString();
+    }
+
+    StringDictionary getDictionary() throws IOException {
+      StringDictionary dictionary = new StringDictionary();
+      int size = getInt();
+      for (int code = 0; code < size; code++) {
+        dictionary.encode(getString());
+      }
+      return dictionary;
+    }
+
+    IntBuffer mapInts(int count) throws IOException {
+      align();
+      return map((long) count * Integer.BYTES).asIntBuffer();
+    }
+
+    LongBuffer mapLongs(int count) throws IOException {
+      align();
+      return map((long) count * Long.BYTES).asLongBuffer();
+    }
+
+    ByteBuffer mapBytes(int count) throws IOException {
+      return map(count);
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package umm3601.todo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * A trigram index over the (lower-cased) bodies of a collection of todos.
+ * <p>
+ * For every three-character sequence (a "trigram") that appears in any body,
+ * the index keeps a sorted list of the positions of the todos whose body
+ * contains that trigram. A body can only contain some search text if it
+ * contains every trigram of that text, so intersecting the lists for the
+ * search text's trigrams gives us a (usually small) set of candidates, and
+ * we only have to check those candidates with `String.contains()`.
+ */
+class TrigramIndex {
+
+  // The number of characters in each indexed "gram".
+  private static final int GRAM_LENGTH = 3;
+
+  // The number of todos in the index.
+  private final int size;
+
+  // Gets the lower-cased body of the todo at a position, for checking the
+  // candidates the index turns up. Usually these are computed once when the
+  // index is built, so that we don't have to lower-case every body again
+  // for every request.
+  private final IntFunction<String> lowerCaseBody;
+
+  // Maps each trigram (packed into a `long`, see `trigramAt()`) to the
+  // sorted positions of the todos whose body contains it.
+  private final Map<Long, int[]> postings;
+
+  /**
+   * Build a trigram index over the given bodies.
+   *
+   * @param bodies the body of each todo, where `bodies[i]` is the body of
+   *               the todo at position `i`
+   */
+  TrigramIndex(String[] bodies) {
+    this(bodies, null);
+  }
+
+  /**
+   * Build a trigram index over the given bodies. If `bodyAt` is given, the
+   * index doesn't keep its own (lower-cased) copy of the bodies, and looks
+   * them up with `bodyAt` instead when it needs to check them. That takes a
+   * little longer, but saves memory when the bodies are already stored
+   * compactly elsewhere (e.g., in `TodoColumns`).
+   *
+   * @param bodies the body of each todo, where `bodies[i]` is the body of
+   *               the todo at position `i`
+   * @param bodyAt gets the body of the todo at a position, or `null` to
+   *               keep a copy of the bodies in the index
+   */
+  TrigramIndex(String[] bodies, IntFunction<String> bodyAt) {
+    size = bodies.length;
+    String[] lowerCaseBodies = (bodyAt == null) ? new String[size] : null;
+    Map<Long, PostingBuilder> builders = new HashMap<>();
+    for (int i = 0; i < bodies.length; i++) {
+      String body = bodies[i].toLowerCase();
+      if (lowerCaseBodies != null) {
+        lowerCaseBodies[i] = body;
+      }
+      for (int start = 0; start + GRAM_LENGTH <= body.length(); start++) {
+        builders.computeIfAbsent(trigramAt(body, start), k -> new PostingBuilder()).add(i);
+      }
+    }
+    if (lowerCaseBodies != null) {
+      lowerCaseBody = position -> lowerCaseBodies[position];
+    } else {
+      lowerCaseBody = position -> bodyAt.apply(position).toLowerCase();
+    }
+
+    postings = new HashMap<>(builders.size() * 2);
+    for (Map.Entry<Long, PostingBuilder> entry : builders.entrySet()) {
+      postings.put(entry.getKey(), entry.getValue().toArray());
+    }
+  }
+
+  /**
+   * Clear the bits in `matches` for the todos whose body doesn't contain the
+   * target text, ignoring case.
+   *
+   * @param matches    the bitset of todo positions to narrow down
+   * @param targetBody the text to look for in each todo's body
+   */
+  void retainContaining(BitSet matches, String targetBody) {
+    String target = targetBody.toLowerCase();
+
+    // Search text shorter than a trigram can't use the index, so we just
+    // check each remaining candidate directly.
+    if (target.length() < GRAM_LENGTH) {
+      for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+        if (!lowerCaseBody.apply(i).contains(target)) {
+          matches.clear(i);
+        }
+      }
+      return;
+    }
+
+    // Collect the posting list for each trigram in the search text. If any
+    // trigram doesn't appear in any body at all, then nothing can match.
+    int gramCount = target.length() - GRAM_LENGTH + 1;
+    int[][] lists = new int[gramCount][];
+    for (int start = 0; start < gramCount; start++) {
+      lists[start] = postings.get(trigramAt(target, start));
+      if (lists[start] == null) {
+        matches.clear();
+        return;
+      }
+    }
+    // Walk the shortest list, and check the others with binary search.
+    Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+
+    BitSet found = new BitSet(size);
+    for (int position : lists[0]) {
+      if (matches.get(position) && inAllLists(lists, position)
+          && lowerCaseBody.apply(position).contains(target)) {
+        found.set(position);
+      }
+    }
+    matches.and(found);
+  }
+
+  /**
+   * Check whether a position appears in every posting list (other than the
+   * first, which is the one we're walking).
+   *
+   * @param lists    the sorted posting lists to check
+   * @param position the todo position to look for
+   * @return true if `position` is in every list
+   */
+  private static boolean inAllLists(int[][] lists, int position) {
+    for (int k = 1; k < lists.length; k++) {
+      if (Arrays.binarySearch(lists[k], position) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Pack the three characters starting at `start` into a single `long`
+   * (16 bits per character) so it can be used as a map key.
+   *
+   * @param text  the text to take the trigram from
+   * @param start the index of the first character of the trigram
+   * @return the packed trigram
+   */
+  @SuppressWarnings({"MagicNumber"})
+  private static long trigramAt(String text, int start) {
+    return ((long) text.charAt(start) << 32)
+        | ((long) text.charAt(start + 1) << 16)
+        | text.charAt(start + 2);
+  }
+
+  /**
+   * A growable, duplicate-free list of (increasing) todo positions, used
+   * while building the index.
+   */
+  private static final class PostingBuilder {
+    private int[] positions = new int[2];
+    private int size;
+
+    void add(int position) {
+      // Positions are added in increasing order, so a repeated trigram
+      // within the same body will always be a repeat of the last position.
+      if (size > 0 && positions[size - 1] == position) {
+        return;
+      }
+      if (size == positions.length) {
+        positions = Arrays.copyOf(positions, size * 2);
+      }
+      positions[size++] = position;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(positions, size);
+    }
+  }
+}
@@ -1,5 +1,10 @@
 package umm3601.user;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import umm3601.ObjectId;
+import umm3601.StringDictionary;
+
 // There are two examples of suppressing CheckStyle
 // warnings in this class. If you create new classes
 // that mirror data in the database and that will be managed
@@ -20,13 +25,19 @@ package umm3601.user;
 public class User {
   // By default Java field names shouldn't start with underscores.
   // Here, though, we *have* to use the name `_id` to match the
-  // name of the field in the database.
+  // name of the field in the database. It's still a 24-digit hex string in
+  // the JSON, but we hold it in the far more compact form of an `ObjectId`.
   @SuppressWarnings({"MemberName"})
-  public String _id;
+  public ObjectId _id;
   public String name;
   public int age;
+  // There are only a few distinct companies and roles, so when the
+  // database reads its users, every user shares one copy of each value
+  // (see `StringDictionary`).
+  @JsonDeserialize(using = StringDictionary.Deserializer.class)
   public String company;
   public String email;
   public String avatar;
+  @JsonDeserialize(using = StringDictionary.Deserializer.class)
   public String role;
 }
@@ -1,20 +1,52 @@
 package umm3601.user;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.Compression;
 import umm3601.Controller;
+import umm3601.Cursor;
+import umm3601.ETags;
+import umm3601.JsonStreaming;
+import umm3601.QueryTiming;
+import umm3601.ResponseCache;
 
 /**
  * Controller that manages requests for info about users.
  */
 public class UserController implements Controller {
 
+  // The query parameters that affect the list of users we send back, and
+  // which of those are compared without regard to case. We use these to
+  // tell when two requests are for the same list of users.
+  private static final Set<String> QUERY_PARAMS = Set.of("age", "company", "role", "pageSize", "cursor");
+  private static final Set<String> CASE_INSENSITIVE_PARAMS = Set.of();
+
+  // The most memory (in bytes) we'll use for caching responses.
+  private static final long RESPONSE_CACHE_BYTES = 64L * 1024 * 1024;
+
   private UserDatabase userDatabase;
 
+  // Recent responses to list requests. Our data never changes, so these
+  // never need to be invalidated; they only go when they're evicted to
+  // make room for others.
+  private ResponseCache responseCache = new ResponseCache(RESPONSE_CACHE_BYTES);
+
+  // Whether responses should be written straight to the client from the
+  // JSON the database serialized when it loaded, rather than serialized
+  // again with `ctx.json()`. (Unpaged) lists of users are then also
+  // streamed to the client one user at a time.
+  private boolean writeJsonDirectly;
+
   /**
    * Construct a controller for users.
    * <p>
@@ -25,7 +57,20 @@ public class UserController implements Controller {
    * @param userDatabase the `UserDatabase` containing user data
    */
   public UserController(UserDatabase userDatabase) {
+    this(userDatabase, false);
+  }
+
+  /**
+   * Construct a controller for users, which can optionally write the
+   * database's pre-serialized JSON straight to the client (streaming lists
+   * of users) instead of serializing each response with `ctx.json()`.
+   *
+   * @param userDatabase      the `UserDatabase` containing user data
+   * @param writeJsonDirectly whether to write pre-serialized JSON to the client
+   */
+  public UserController(UserDatabase userDatabase, boolean writeJsonDirectly) {
     this.userDatabase = userDatabase;
+    this.writeJsonDirectly = writeJsonDirectly;
   }
 
   /**s
@@ -40,11 +85,20 @@ public class UserController implements Controller {
    */
   public static UserController buildUserController(String userDataFile) throws IOException {
     UserDatabase userDatabase = new UserDatabase(userDataFile);
-    UserController userController = new UserController(userDatabase);
+    UserController userController = new UserController(userDatabase, true);
 
     return userController;
   }
 
+  /**
+   * Get the cache this controller keeps recent list responses in.
+   *
+   * @return the response cache
+   */
+  public ResponseCache getResponseCache() {
+    return responseCache;
+  }
+
   /**
    * Get the single user specified by the `id` parameter in the request.
    *
@@ -52,13 +106,29 @@ public class UserController implements Controller {
    */
   public void getUser(Context ctx) {
     String id = ctx.pathParam("id");
-    User user = userDatabase.getUser(id);
-    if (user != null) {
-      ctx.json(user);
-      ctx.status(HttpStatus.OK);
+    // Look the id up just once, and only get the form of the user we're
+    // going to send: its JSON if we're writing that directly, otherwise
+    // the User itself.
+    byte[] json = null;
+    User user = null;
+    if (writeJsonDirectly) {
+      json = userDatabase.getSerializedUser(id);
     } else {
+      user = userDatabase.getUser(id);
+    }
+    if (json == null && user == null) {
       throw new NotFoundResponse("No user with id " + id + " was found.");
     }
+    // Clients that already have this user can just keep using it.
+    if (ETags.notModified(ctx, ETags.of(userDatabase.getDataVersion(), id))) {
+      return;
+    }
+    if (json != null) {
+      JsonStreaming.writeValue(ctx, json);
+    } else {
+      ctx.json(user);
+    }
+    ctx.status(HttpStatus.OK);
   }
 
   /**
@@ -67,8 +137,103 @@ public class UserController implements Controller {
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
-    User[] users = userDatabase.listUsers(ctx.queryParamMap());
-    ctx.json(users);
+    Map<String, List<String>> queryParams = ctx.queryParamMap();
+
+    // Clients doing bulk exports can ask for newline delimited JSON
+    // (one user per line) instead of a JSON array.
+    boolean ndjson = JsonStreaming.wantsNdjson(ctx);
+    String contentType = ndjson ? JsonStreaming.NDJSON_CONTENT_TYPE : JsonStreaming.JSON_CONTENT_TYPE;
+    String canonicalQuery = ResponseCache.key(contentType, queryParams, QUERY_PARAMS, CASE_INSENSITIVE_PARAMS);
+
+    boolean acceptGzip = Compression.acceptsGzip(ctx);
+
+    // Requests can ask for a breakdown of how long each stage of the query
+    // takes (see `QueryTiming`). Those requests always run the query, so
+    // they never get a `304 Not Modified` or a cached response.
+    QueryTiming timing = QueryTiming.forRequest(ctx);
+
+    // Turn away a bad query before it gets an ETag, so that the ETag on an
+    // error response can never get a `304 Not Modified` later.
+    userDatabase.validateQuery(queryParams);
+
+    // Clients that poll for the same users can send back the ETag we gave
+    // them last time, and if nothing has changed we don't have to send
+    // them anything.
+    ctx.header(Header.VARY, Header.ACCEPT + ", " + Header.ACCEPT_ENCODING);
+    // The ETag is the same whether or not the response ends up gzipped
+    // (see `ETags`).
+    if (!timing.isEnabled() && ETags.notModified(ctx, ETags.of(userDatabase.getDataVersion(), canonicalQuery))) {
+      return;
+    }
+
+    if (!writeJsonDirectly && !ndjson) {
+      User[] users = userDatabase.listUsers(queryParams, timing);
+      timing.addHeader(ctx);
+      String nextCursor = userDatabase.nextCursor(queryParams, users);
+      if (nextCursor != null) {
+        ctx.header(Cursor.NEXT_CURSOR_HEADER, nextCursor);
+      }
+      ctx.json(users);
+      return;
+    }
+
+    // If we've recently sent the response to this same query, we can just
+    // send it again (compressed, if the client accepts that, with the copy
+    // we compressed when we cached it).
+    ResponseCache.Entry cachedResponse = timing.isEnabled() ? null : responseCache.get(canonicalQuery);
+    if (cachedResponse != null) {
+      cachedResponse.writeTo(ctx, acceptGzip);
+      return;
+    }
+
+    // Stream the users if we can, so we never have to hold the entire
+    // response in memory. Paged responses are never very large, and they
+    // need the next cursor in a header before we start writing the body,
+    // so we get the whole page first. The same goes for timed requests,
+    // which need the timings in a header.
+    Map<String, String> headers = new HashMap<>();
+    Consumer<Consumer<byte[]>> producer;
+    if (queryParams.containsKey("pageSize") || timing.isEnabled()) {
+      User[] users = userDatabase.listUsers(queryParams, timing);
+      timing.addHeader(ctx);
+      // If there are (probably) more users, tell the client where the
+      // next page starts.
+      String nextCursor = userDatabase.nextCursor(queryParams, users);
+      if (nextCursor != null) {
+        headers.put(Cursor.NEXT_CURSOR_HEADER, nextCursor);
+      }
+      producer = action -> forEachSerialized(users, action);
+    } else {
+      producer = action -> userDatabase.forEachSerializedUser(queryParams, action);
+    }
+
+    headers.forEach(ctx::header);
+    ctx.contentType(contentType);
+    // Keep a copy of what we send so we can cache it, unless it turns out
+    // to be too big to cache.
+    ResponseCache.Capture capture = new ResponseCache.Capture(ctx.outputStream(), responseCache.maxEntrySize());
+    if (ndjson) {
+      JsonStreaming.writeLines(capture, producer);
+    } else {
+      JsonStreaming.writeArray(capture, producer);
+    }
+    byte[] body = capture.captured();
+    if (body != null) {
+      responseCache.put(canonicalQuery, new ResponseCache.Entry(body, contentType, headers));
+    }
+  }
+
+  /**
+   * Hand the database's pre-serialized JSON for each of the given users
+   * to `action`, in order.
+   *
+   * @param users  the users to get the JSON for
+   * @param action the action to perform on the JSON for each user
+   */
+  private void forEachSerialized(User[] users, Consumer<byte[]> action) {
+    for (User user : users) {
+      action.accept(userDatabase.getSerializedUser(user._id));
+    }
   }
 
   /**
@@ -78,6 +243,17 @@ public class UserController implements Controller {
    * - `GET /api/users?age=NUMBER&company=STRING&name=STRING`
    * - List users, filtered using query parameters
    * - `age`, `company`, and `name` are optional query parameters
+   * - `pageSize` and `cursor` are optional query parameters for paging
+   *   through the list; the cursor for the next page is returned in the
+   *   `X-Next-Cursor` response header
+   * - Sending `Accept: application/x-ndjson` gets the users as newline
+   *   delimited JSON, one user per line, instead of as a JSON array
+   * - Every response has an `ETag`; sending it back in `If-None-Match`
+   *   gets a `304 Not Modified` if the response would be the same
+   * - Repeated (large) responses are sent gzipped to clients that send
+   *   `Accept-Encoding: gzip`, without compressing them each time
+   * - `debug=timing` (or an `X-Debug: timing` header) gets a breakdown of
+   *   how long each stage of the query took in a `Server-Timing` header
    * - `GET /api/users/:id`
    * - Get the specified user
    *
@@ -1,15 +1,32 @@
 package umm3601.user;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import io.javalin.http.BadRequestResponse;
+import umm3601.Cursor;
+import umm3601.IdIndex;
+import umm3601.ObjectId;
+import umm3601.StringDictionary;
+import umm3601.QueryTiming;
+import umm3601.metrics.QueryEvent;
 
 /**
  * A fake "userDatabase" of user info
@@ -23,30 +40,126 @@ public class UserDatabase {
 
   private User[] allUsers;
 
+  // The JSON for each user, serialized (as UTF-8) just once when the data
+  // is loaded. The users never change, so we can hand these bytes straight
+  // to the client instead of having Jackson serialize the same users again
+  // for every request.
+  private byte[][] serializedUsers;
+
+  // Maps each user's `_id` to its position in `allUsers`. This is built once
+  // when the data is loaded so that `getUser()` doesn't have to scan every
+  // user looking for a matching ID.
+  private IdIndex userIds;
+
+  // The distinct companies and roles, and the code in those dictionaries
+  // of each user's company and role, so that filtering on company or role
+  // compares ints rather than strings.
+  private StringDictionary companies;
+  private int[] companyCodes;
+  private StringDictionary roles;
+  private int[] roleCodes;
+
+  // A version number for the data, which changes whenever the data does.
+  // The data never changes once it's loaded, so this is just a checksum of
+  // the serialized users; that way it's also the same every time the
+  // server loads the same data (e.g., after a restart).
+  private long dataVersion;
+
+  // The name we use for the order of `allUsers` in cursors.
+  private static final String UNSORTED = "none";
+
   public UserDatabase(String userDataFile) throws IOException {
+    this(readUsers(userDataFile));
+  }
+
+  /**
+   * Construct a database holding the given users, rather than reading them
+   * from a data file (e.g., a large synthetic dataset for benchmarking).
+   *
+   * @param users the users to hold; the database keeps this array, so it
+   *              shouldn't be changed afterwards
+   * @throws IOException if the users can't be serialized to JSON
+   */
+  public UserDatabase(User[] users) throws IOException {
+    allUsers = users;
+
+    ObjectMapper objectMapper = new ObjectMapper();
+    serializedUsers = new byte[allUsers.length][];
+    for (int i = 0; i < allUsers.length; i++) {
+      serializedUsers[i] = objectMapper.writeValueAsBytes(allUsers[i]);
+    }
+    CRC32 checksum = new CRC32();
+    for (byte[] json : serializedUsers) {
+      checksum.update(json);
+    }
+    dataVersion = checksum.getValue();
+
+    userIds = new IdIndex(allUsers.length, i -> allUsers[i]._id);
+
+    // The users read from a data file already share one copy of each
+    // company and role, but users made some other way might not, so we
+    // make sure they do.
+    companies = new StringDictionary();
+    roles = new StringDictionary();
+    companyCodes = new int[allUsers.length];
+    roleCodes = new int[allUsers.length];
+    for (int i = 0; i < allUsers.length; i++) {
+      companyCodes[i] = companies.encode(allUsers[i].company);
+      roleCodes[i] = roles.encode(allUsers[i].role);
+      allUsers[i].company = companies.value(companyCodes[i]);
+      allUsers[i].role = roles.value(roleCodes[i]);
+    }
+  }
+
+  /**
+   * Read the users from a JSON data file, either on the classpath (like the
+   * bundled `users.json`) or, failing that, in the file system (like a
+   * dataset made by `DatasetGenerator`).
+   *
+   * @param userDataFile the path of the data file
+   * @return the users in the file
+   * @throws IOException if the file can't be found or read
+   */
+  private static User[] readUsers(String userDataFile) throws IOException {
     // The `.getResourceAsStream` method searches for the given resource in
-    // the classpath, and returns `null` if it isn't found. We want to throw
-    // an IOException if the data file isn't found, so we need to check for
-    // `null` ourselves, and throw an IOException if necessary.
+    // the classpath, and returns `null` if it isn't found. In that case we
+    // look for the file in the file system, and if it isn't there either we
+    // throw an IOException.
     InputStream resourceAsStream = UserDatabase.class.getResourceAsStream(userDataFile);
     if (resourceAsStream == null) {
-      throw new IOException("Could not find " + userDataFile);
+      Path path = Path.of(userDataFile);
+      if (!Files.isRegularFile(path)) {
+        throw new IOException("Could not find " + userDataFile);
+      }
+      resourceAsStream = new BufferedInputStream(Files.newInputStream(path));
     }
     InputStreamReader reader = new InputStreamReader(resourceAsStream);
     // A Jackson JSON mapper knows how to parse JSON into sensible 'User'
     // objects.
     ObjectMapper objectMapper = new ObjectMapper();
-    // Read our user data file into an array of User objects.
-    allUsers = objectMapper.readValue(reader, User[].class);
+    // Read our data file into an array of `User` objects, sharing one copy
+    // of each distinct company and role among all the users.
+    User[] users = StringDictionary.interning(objectMapper.readerFor(User[].class)).readValue(reader);
 
     // Close the `reader` to free resources.
     reader.close();
+    return users;
   }
 
   public int size() {
     return allUsers.length;
   }
 
+  /**
+   * Get the version of the data in this database. Any change to the data
+   * changes the version.
+   *
+   * @return the version of the data
+   */
+  public long getDataVersion() {
+    return dataVersion;
+  }
+
   /**
    * Get the single user specified by the given ID. Return `null` if there is no
    * user with that ID.
@@ -55,7 +168,67 @@ public class UserDatabase {
    * @return the user with the given ID, or null if there is no user with that ID
    */
   public User getUser(String id) {
-    return Arrays.stream(allUsers).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+    ObjectId objectId = ObjectId.tryParse(id);
+    return objectId == null ? null : getUser(objectId);
+  }
+
+  /**
+   * Get the single user specified by the given ID. Return `null` if there is no
+   * user with that ID.
+   *
+   * @param id the ID of the desired user
+   * @return the user with the given ID, or null if there is no user with that ID
+   */
+  public User getUser(ObjectId id) {
+    int position = userIds.position(id);
+    return position < 0 ? null : allUsers[position];
+  }
+
+  /**
+   * Get the (UTF-8) JSON for the single user specified by the given ID.
+   * Return `null` if there is no user with that ID.
+   *
+   * @param id the ID of the desired user
+   * @return the JSON for the user with the given ID, or null if there is no
+   *         user with that ID
+   */
+  public byte[] getSerializedUser(String id) {
+    ObjectId objectId = ObjectId.tryParse(id);
+    return objectId == null ? null : getSerializedUser(objectId);
+  }
+
+  /**
+   * Get the (UTF-8) JSON for the single user specified by the given ID.
+   * Return `null` if there is no user with that ID.
+   *
+   * @param id the ID of the desired user
+   * @return the JSON for the user with the given ID, or null if there is no
+   *         user with that ID
+   */
+  public byte[] getSerializedUser(ObjectId id) {
+    int position = userIds.position(id);
+    return position < 0 ? null : serializedUsers[position];
+  }
+
+  /**
+   * Check that the query params are valid, without running the query, so
+   * that a bad query can be turned away before anything else is done with
+   * it (e.g., before it's given an ETag). This checks the same things, in
+   * the same order, as `listUsers()` does, so it reports the same error.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @throws BadRequestResponse if any of the params is invalid
+   */
+  public void validateQuery(Map<String, List<String>> queryParams) {
+    if (queryParams.containsKey("age")) {
+      parseAge(queryParams.get("age").get(0));
+    }
+    if (queryParams.containsKey("pageSize")) {
+      Cursor.parsePageSize(queryParams.get("pageSize").get(0));
+    }
+    if (queryParams.containsKey("cursor")) {
+      Cursor.decode(queryParams.get("cursor").get(0), UNSORTED);
+    }
   }
 
   /**
@@ -65,31 +238,189 @@ public class UserDatabase {
    * @return an array of all the users matching the given criteria
    */
   public User[] listUsers(Map<String, List<String>> queryParams) {
-    User[] filteredUsers = allUsers;
+    return listUsers(queryParams, QueryTiming.DISABLED);
+  }
+
+  /**
+   * Get an array of all the users satisfying the queries in the params,
+   * recording how long each filter takes.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param timing      where to record the time each filter takes
+   * @return an array of all the users matching the given criteria
+   */
+  public User[] listUsers(Map<String, List<String>> queryParams, QueryTiming timing) {
+    List<User> filteredUsers = new ArrayList<>();
+    forEachPosition(queryParams, timing, position -> filteredUsers.add(allUsers[position]));
+    return filteredUsers.toArray(new User[0]);
+  }
+
+  /**
+   * Hand each of the users satisfying the queries in the params to `action`,
+   * in the same order as `listUsers()` would return them, without building
+   * an array of all the matching users.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param action      the action to perform on each matching user
+   */
+  public void forEachUser(Map<String, List<String>> queryParams, Consumer<? super User> action) {
+    forEachPosition(queryParams, QueryTiming.DISABLED, position -> action.accept(allUsers[position]));
+  }
+
+  /**
+   * Hand the (UTF-8) JSON for each of the users satisfying the queries in
+   * the params to `action`, in the same order as `listUsers()` would
+   * return them.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param action      the action to perform on the JSON for each matching user
+   */
+  public void forEachSerializedUser(Map<String, List<String>> queryParams, Consumer<? super byte[]> action) {
+    forEachPosition(queryParams, QueryTiming.DISABLED, position -> action.accept(serializedUsers[position]));
+  }
+
+  /**
+   * Hand the position in `allUsers` of each of the users satisfying the
+   * queries in the params to `action`, in order.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param timing      where to record the time each filter takes
+   * @param action      the action to perform on the position of each matching user
+   */
+  private void forEachPosition(Map<String, List<String>> queryParams, QueryTiming timing, IntConsumer action) {
+    QueryEvent event = QueryEvent.start("users");
+
+    // Each filter is a test of the user at a given position, keyed by the
+    // name of its stage (for the timings).
+    Map<String, IntPredicate> filters = new LinkedHashMap<>();
 
     // Filter age if defined
     if (queryParams.containsKey("age")) {
-      String ageParam = queryParams.get("age").get(0);
-      try {
-        int targetAge = Integer.parseInt(ageParam);
-        filteredUsers = filterUsersByAge(filteredUsers, targetAge);
-      } catch (NumberFormatException e) {
-        throw new BadRequestResponse("Specified age '" + ageParam + "' can't be parsed to an integer");
-      }
+      Predicate<User> hasTargetAge = hasAge(parseAge(queryParams.get("age").get(0)));
+      filters.put("age", position -> hasTargetAge.test(allUsers[position]));
     }
     // Filter company if defined
     if (queryParams.containsKey("company")) {
       String targetCompany = queryParams.get("company").get(0);
-      filteredUsers = filterUsersByCompany(filteredUsers, targetCompany);
+      // A company that no user has gets code -1, which matches no user.
+      int targetCode = companies.code(targetCompany);
+      filters.put("company", position -> companyCodes[position] == targetCode);
     }
     // Filter by role
     if (queryParams.containsKey("role")) {
       String targetRole = queryParams.get("role").get(0);
-      filteredUsers = filterUsersByRole(filteredUsers, targetRole);
+      int targetCode = roles.code(targetRole);
+      filters.put("role", position -> roleCodes[position] == targetCode);
     }
     // Process other query parameters here...
 
-    return filteredUsers;
+    // Only return one page of users if a page size is defined, starting
+    // after the end of the previous page if we were given a cursor.
+    int pageSize = Integer.MAX_VALUE;
+    if (queryParams.containsKey("pageSize")) {
+      pageSize = Cursor.parsePageSize(queryParams.get("pageSize").get(0));
+    }
+    int start = 0;
+    if (queryParams.containsKey("cursor")) {
+      start = Cursor.decode(queryParams.get("cursor").get(0), UNSORTED);
+    }
+
+    int count;
+    if (timing.isEnabled()) {
+      count = forEachPositionTimed(filters, start, pageSize, timing, action);
+    } else {
+      // Combine all the filters into a single test, so we can check each
+      // user just once, and stop as soon as we have a full page of users.
+      IntPredicate matches = position -> true;
+      for (IntPredicate filter : filters.values()) {
+        matches = matches.and(filter);
+      }
+      count = 0;
+      for (int i = start; i < allUsers.length && count < pageSize; i++) {
+        if (matches.test(i)) {
+          action.accept(i);
+          count++;
+        }
+      }
+    }
+    event.finish(queryParams, count);
+  }
+
+  /**
+   * Hand the position of each user that passes all the filters to
+   * `action`, in order, timing each filter.
+   * <p>
+   * Timing each test of each user would mostly measure the clock, so
+   * instead each filter gets a pass of its own over the users that passed
+   * the filters before it, and that whole pass is timed. That means checking
+   * every user rather than stopping at a full page, but it's only for
+   * requests that ask for timings.
+   *
+   * @param filters  the filters, keyed by the names of their stages
+   * @param start    the position of the first user to consider
+   * @param pageSize the most users to hand to `action`
+   * @param timing   where to record the time each filter takes
+   * @param action   the action to perform on the position of each matching user
+   * @return the number of users handed to `action`
+   */
+  private int forEachPositionTimed(Map<String, IntPredicate> filters, int start, int pageSize, QueryTiming timing,
+      IntConsumer action) {
+    BitSet matches = new BitSet(allUsers.length);
+    matches.set(Math.min(start, allUsers.length), allUsers.length);
+    for (Map.Entry<String, IntPredicate> filter : filters.entrySet()) {
+      IntPredicate test = filter.getValue();
+      int before = timing.count(matches);
+      long stageStart = timing.start();
+      for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+        if (!test.test(i)) {
+          matches.clear(i);
+        }
+      }
+      timing.record(filter.getKey(), stageStart, before, matches);
+    }
+
+    // Then hand over (at most) a page of the users that passed them all.
+    int before = timing.count(matches);
+    long scanStart = timing.start();
+    int count = 0;
+    for (int i = matches.nextSetBit(0); i >= 0 && count < pageSize; i = matches.nextSetBit(i + 1)) {
+      action.accept(i);
+      count++;
+    }
+    timing.record("scan", scanStart, before, count);
+    return count;
+  }
+
+  /**
+   * Parse the value of the `age` query parameter.
+   *
+   * @param ageParam the value of the `age` query parameter
+   * @return the age as an integer
+   */
+  private int parseAge(String ageParam) {
+    try {
+      return Integer.parseInt(ageParam);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified age '" + ageParam + "' can't be parsed to an integer");
+    }
+  }
+
+  /**
+   * Get the cursor for the page of users after the given page, which should
+   * be the result of calling `listUsers()` with the same query parameters.
+   * Return `null` if there isn't a next page, either because we weren't
+   * asked for a `pageSize` or because this page wasn't full.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param page        the users that `listUsers()` returned for that query
+   * @return the cursor for the next page, or `null` if there isn't one
+   */
+  public String nextCursor(Map<String, List<String>> queryParams, User[] page) {
+    if (!queryParams.containsKey("pageSize") || page.length == 0
+        || page.length < Cursor.parsePageSize(queryParams.get("pageSize").get(0))) {
+      return null;
+    }
+    return Cursor.encode(UNSORTED, userIds.position(page[page.length - 1]._id));
   }
 
   /**
@@ -101,7 +432,7 @@ public class UserDatabase {
    *         age
    */
   public User[] filterUsersByAge(User[] users, int targetAge) {
-    return Arrays.stream(users).filter(x -> x.age == targetAge).toArray(User[]::new);
+    return Arrays.stream(users).filter(hasAge(targetAge)).toArray(User[]::new);
   }
 
   /**
@@ -113,7 +444,7 @@ public class UserDatabase {
    *         company
    */
   public User[] filterUsersByCompany(User[] users, String targetCompany) {
-    return Arrays.stream(users).filter(x -> x.company.equals(targetCompany)).toArray(User[]::new);
+    return Arrays.stream(users).filter(hasCompany(targetCompany)).toArray(User[]::new);
   }
 
   /**
@@ -125,7 +456,37 @@ public class UserDatabase {
    *         role
    */
   public User[] filterUsersByRole(User[] users, String targetRole) {
-    return Arrays.stream(users).filter(x -> x.role.equals(targetRole)).toArray(User[]::new);
+    return Arrays.stream(users).filter(hasRole(targetRole)).toArray(User[]::new);
+  }
+
+  /**
+   * Get a test for whether a user has the target age.
+   *
+   * @param targetAge the target age to look for
+   * @return a predicate that is true for users having the target age
+   */
+  private static Predicate<User> hasAge(int targetAge) {
+    return user -> user.age == targetAge;
+  }
+
+  /**
+   * Get a test for whether a user has the target company.
+   *
+   * @param targetCompany the target company to look for
+   * @return a predicate that is true for users having the target company
+   */
+  private static Predicate<User> hasCompany(String targetCompany) {
+    return user -> user.company.equals(targetCompany);
+  }
+
+  /**
+   * Get a test for whether a user has the target role.
+   *
+   * @param targetRole the target role to look for
+   * @return a predicate that is true for users having the target role
+   */
+  private static Predicate<User> hasRole(String targetRole) {
+    return user -> user.role.equals(targetRole);
   }
 
 }
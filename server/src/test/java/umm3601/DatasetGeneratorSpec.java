@@ -0,0 +1,86 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import umm3601.todo.Todo;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.User;
+import umm3601.user.UserDatabase;
+
+/**
+ * Tests the synthetic datasets made by `DatasetGenerator`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class DatasetGeneratorSpec {
+
+  @Test
+  public void sameSeedGeneratesSameTodos() {
+    Todo[] first = new DatasetGenerator(42).todos(100);
+    Todo[] second = new DatasetGenerator(42).todos(100);
+    for (int i = 0; i < first.length; i++) {
+      assertEquals(first[i]._id, second[i]._id);
+      assertEquals(first[i].owner, second[i].owner);
+      assertEquals(first[i].body, second[i].body);
+    }
+  }
+
+  @Test
+  public void generatesUniqueIds() {
+    Todo[] todos = new DatasetGenerator(DatasetGenerator.DEFAULT_SEED).todos(10_000);
+    assertEquals(10_000, Arrays.stream(todos).map(todo -> todo._id).distinct().count());
+    assertTrue(Arrays.stream(todos).allMatch(todo -> todo._id.toString().matches("[0-9a-f]{24}")));
+  }
+
+  @Test
+  public void ownersAreSkewed() {
+    Todo[] todos = new DatasetGenerator(DatasetGenerator.DEFAULT_SEED).todos(10_000);
+    long fry = Arrays.stream(todos).filter(todo -> todo.owner.equals("Fry")).count();
+    long blanche = Arrays.stream(todos).filter(todo -> todo.owner.equals("Blanche")).count();
+    // "Fry" is the most common owner, and "Blanche" the sixth most common,
+    // so there should be several times as many todos for "Fry".
+    assertTrue(fry > 3 * blanche, "Expected many more todos for Fry (" + fry + ") than Blanche (" + blanche + ")");
+    assertTrue(blanche > 0);
+  }
+
+  @Test
+  public void generatesPlausibleUsers() {
+    User[] users = new DatasetGenerator(DatasetGenerator.DEFAULT_SEED).users(1000);
+    for (User user : users) {
+      assertTrue(user.age >= 18 && user.age <= 75);
+      assertTrue(List.of("viewer", "editor", "admin").contains(user.role));
+      assertTrue(user.email.endsWith("@" + user.company.toLowerCase() + ".com"));
+    }
+  }
+
+  @Test
+  public void databasesCanLoadGeneratedFiles(@TempDir Path dir) throws IOException {
+    Path todoFile = dir.resolve("todos.json");
+    Path userFile = dir.resolve("users.json");
+    DatasetGenerator generator = new DatasetGenerator(DatasetGenerator.DEFAULT_SEED);
+    try (OutputStream out = Files.newOutputStream(todoFile)) {
+      generator.writeTodos(out, 500);
+    }
+    try (OutputStream out = Files.newOutputStream(userFile)) {
+      generator.writeUsers(out, 50);
+    }
+
+    TodoDatabase todoDatabase = new TodoDatabase(todoFile.toString());
+    assertEquals(500, todoDatabase.size());
+    assertTrue(todoDatabase.listTodos(Map.of("owner", List.of("Fry"))).length > 0);
+
+    UserDatabase userDatabase = new UserDatabase(userFile.toString());
+    assertEquals(50, userDatabase.size());
+  }
+}
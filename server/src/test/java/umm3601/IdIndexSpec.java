@@ -0,0 +1,44 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the index from `_id` to record position.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class IdIndexSpec {
+
+  @Test
+  public void findsEveryId() {
+    ObjectId[] ids = new ObjectId[10_000];
+    Random random = new Random(3601);
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = new ObjectId(random.nextLong(), i);
+    }
+    IdIndex index = new IdIndex(ids.length, i -> ids[i]);
+    assertEquals(ids.length, index.size());
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(i, index.position(ids[i]));
+      assertEquals(ids[i], index.id(i));
+    }
+  }
+
+  @Test
+  public void missingIdsHaveNoPosition() {
+    IdIndex index = new IdIndex(3, i -> new ObjectId(0, i));
+    assertEquals(-1, index.position(new ObjectId(0, 3)));
+    assertEquals(-1, index.position(new ObjectId(1, 0)));
+    assertEquals(-1, new IdIndex(0, i -> null).position(new ObjectId(0, 0)));
+  }
+
+  @Test
+  public void firstOfDuplicateIdsWins() {
+    IdIndex index = new IdIndex(4, i -> new ObjectId(7, i % 2));
+    assertEquals(0, index.position(new ObjectId(7, 0)));
+    assertEquals(1, index.position(new ObjectId(7, 1)));
+  }
+}
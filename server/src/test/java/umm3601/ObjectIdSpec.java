@@ -0,0 +1,65 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+
+import umm3601.todo.Todo;
+
+/**
+ * Tests the compact `ObjectId` form of `_id`s.
+ */
+public class ObjectIdSpec {
+
+  private static final String ID = "58895985a22c04e761776d54";
+
+  @Test
+  public void roundTripsHexDigits() {
+    for (String hex : new String[] {ID, "000000000000000000000000", "ffffffffffffffffffffffff",
+        "80000000000000007fffffff"}) {
+      assertEquals(hex, ObjectId.parse(hex).toString());
+    }
+  }
+
+  @Test
+  public void equalIdsAreEqual() {
+    assertEquals(ObjectId.parse(ID), ObjectId.parse(ID));
+    assertEquals(ObjectId.parse(ID).hashCode(), ObjectId.parse(ID).hashCode());
+    assertNotEquals(ObjectId.parse(ID), ObjectId.parse("58895985a22c04e761776d55"));
+  }
+
+  @Test
+  public void rejectsInvalidIds() {
+    assertNull(ObjectId.tryParse("nope"));
+    assertNull(ObjectId.tryParse("58895985a22c04e761776d5"));
+    assertNull(ObjectId.tryParse("58895985a22c04e761776d544"));
+    // Upper-case IDs were never the same as the lower-case ones.
+    assertNull(ObjectId.tryParse("58895985A22C04E761776D54"));
+    assertNull(ObjectId.tryParse(null));
+    assertThrows(IllegalArgumentException.class, () -> ObjectId.parse("nope"));
+  }
+
+  @Test
+  public void keepsTheJsonTheSame() throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    Todo todo = mapper.readValue("{\"_id\": \"" + ID + "\"}", Todo.class);
+    assertEquals(ObjectId.parse(ID), todo._id);
+    assertEquals(
+        "{\"_id\":\"" + ID + "\",\"owner\":null,\"status\":false,\"body\":null,\"category\":null}",
+        mapper.writeValueAsString(todo));
+  }
+
+  @Test
+  public void invalidIdsInJsonAreAnError() {
+    assertThrows(InvalidFormatException.class,
+        () -> new ObjectMapper().readValue("{\"_id\": \"nope\"}", Todo.class));
+  }
+}
@@ -0,0 +1,88 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the parsing and checking of the server's settings in `ServerConfig`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class ServerConfigSpec {
+
+  /**
+   * Confirm that settings that aren't given get their default values.
+   */
+  @Test
+  public void usesDefaultsForMissingSettings() {
+    ServerConfig config = ServerConfig.defaults();
+
+    assertEquals(4567, config.getPort());
+    assertFalse(config.useVirtualThreads());
+    assertEquals(200, config.getMaxThreads());
+    assertEquals(1000, config.getMaxQueuedRequests());
+    assertEquals(-1, config.getAcceptors());
+    assertEquals(0, config.getMaxConnections());
+  }
+
+  /**
+   * Confirm that the settings we give are used, ignoring surrounding
+   * whitespace and the case of boolean settings.
+   */
+  @Test
+  public void usesGivenSettings() {
+    ServerConfig config = new ServerConfig(Map.of(
+        "server.port", "8080",
+        "server.virtual-threads", "TRUE",
+        "server.max-threads", " 64 ",
+        "server.max-connections", "5000")::get);
+
+    assertEquals(8080, config.getPort());
+    assertTrue(config.useVirtualThreads());
+    assertEquals(64, config.getMaxThreads());
+    assertEquals(5000, config.getMaxConnections());
+  }
+
+  /**
+   * Confirm that settings that aren't valid values (or are out of range)
+   * are rejected.
+   */
+  @Test
+  public void rejectsInvalidSettings() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new ServerConfig(Map.of("server.port", "http")::get));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ServerConfig(Map.of("server.port", "70000")::get));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ServerConfig(Map.of("server.virtual-threads", "yes")::get));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ServerConfig(Map.of("server.max-queued-requests", "0")::get));
+  }
+
+  /**
+   * Confirm that the thread pool can't be given a maximum size smaller
+   * than its minimum size.
+   */
+  @Test
+  public void rejectsFewerMaxThreadsThanMinThreads() {
+    IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+        () -> new ServerConfig(Map.of("server.min-threads", "16", "server.max-threads", "8")::get));
+
+    assertTrue(exception.getMessage().contains("server.max-threads"));
+  }
+
+  /**
+   * Confirm that the environment variable overriding a setting is named
+   * after the setting.
+   */
+  @Test
+  public void namesEnvironmentVariablesAfterSettings() {
+    assertEquals("SERVER_MAX_THREADS", ServerConfig.environmentVariable("server.max-threads"));
+    assertEquals("SERVER_PORT", ServerConfig.environmentVariable("server.port"));
+  }
+}
@@ -0,0 +1,59 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.todo.Todo;
+
+/**
+ * Tests the dictionary encoding of low-cardinality string fields.
+ */
+public class StringDictionarySpec {
+
+  private static final String TODOS = "[{\"owner\": \"Fry\", \"category\": \"homework\"},"
+      + " {\"owner\": \"Blanche\", \"category\": \"homework\"},"
+      + " {\"owner\": \"Fry\", \"category\": \"software design\"}]";
+
+  @Test
+  public void encodesValuesInOrderSeen() {
+    StringDictionary dictionary = new StringDictionary();
+    assertEquals(0, dictionary.encode("viewer"));
+    assertEquals(1, dictionary.encode("admin"));
+    assertEquals(0, dictionary.encode(new String("viewer")));
+    assertEquals(2, dictionary.size());
+    assertEquals("admin", dictionary.value(1));
+    assertEquals(1, dictionary.code("admin"));
+    assertEquals(-1, dictionary.code("editor"));
+    assertEquals(2, dictionary.size());
+  }
+
+  @Test
+  public void internsEqualValues() {
+    StringDictionary dictionary = new StringDictionary();
+    String first = dictionary.intern(new String("Fry"));
+    assertSame(first, dictionary.intern(new String("Fry")));
+  }
+
+  @Test
+  public void interningReaderSharesValues() throws IOException {
+    Todo[] todos = StringDictionary.interning(new ObjectMapper().readerFor(Todo[].class)).readValue(TODOS);
+    assertEquals("Fry", todos[0].owner);
+    assertEquals("Blanche", todos[1].owner);
+    assertSame(todos[0].owner, todos[2].owner);
+    assertSame(todos[0].category, todos[1].category);
+  }
+
+  @Test
+  public void plainReaderIsUnchanged() throws IOException {
+    Todo[] todos = new ObjectMapper().readValue(TODOS, Todo[].class);
+    assertEquals("Fry", todos[2].owner);
+    assertNotSame(todos[0].owner, todos[2].owner);
+  }
+}
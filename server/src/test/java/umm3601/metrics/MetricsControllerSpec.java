@@ -0,0 +1,156 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+import umm3601.ResponseCache;
+
+/**
+ * Tests the recording and reporting of metrics in `MetricsController`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class MetricsControllerSpec {
+
+  // The `MetricsController` we're testing, prepared in `setUp()`.
+  private MetricsController metricsController;
+
+  // A "fake" version of Javalin's `Context` object that we can
+  // use to test with.
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  public void setUp() {
+    MockitoAnnotations.openMocks(this);
+    metricsController = new MetricsController();
+  }
+
+  /**
+   * Get the metrics the controller sends in response to `GET /metrics`.
+   *
+   * @return the metrics, in the Prometheus text format
+   */
+  private String scrape() {
+    Context metricsCtx = Mockito.mock(Context.class);
+    metricsController.getMetrics(metricsCtx);
+    verify(metricsCtx).contentType(MetricsController.PROMETHEUS_CONTENT_TYPE);
+    verify(metricsCtx).status(HttpStatus.OK);
+    ArgumentCaptor<String> metrics = ArgumentCaptor.forClass(String.class);
+    verify(metricsCtx).result(metrics.capture());
+    return metrics.getValue();
+  }
+
+  /**
+   * Verify that `addRoutes` times every request and adds the
+   * `/metrics` endpoint.
+   */
+  @Test
+  public void addsRoutes() {
+    Javalin mockServer = Mockito.mock(Javalin.class);
+    metricsController.addRoutes(mockServer);
+
+    verify(mockServer).before(any());
+    verify(mockServer).after(any());
+    verify(mockServer).get(eq("/metrics"), any());
+  }
+
+  /**
+   * Confirm that requests are counted by route and status, and that their
+   * durations and response sizes end up in the histograms.
+   */
+  @Test
+  public void canRecordRequests() {
+    when(ctx.<Long>attribute(anyString())).thenReturn(System.nanoTime());
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.endpointHandlerPath()).thenReturn("api/todos");
+    when(ctx.statusCode()).thenReturn(200);
+    when(ctx.resultInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(new byte[5000]));
+
+    metricsController.recordRequest(ctx);
+    metricsController.recordRequest(ctx);
+    when(ctx.statusCode()).thenReturn(400);
+    metricsController.recordRequest(ctx);
+
+    String metrics = scrape();
+    assertTrue(metrics.contains("http_requests_total{method=\"GET\",route=\"api/todos\",status=\"200\"} 2\n"));
+    assertTrue(metrics.contains("http_requests_total{method=\"GET\",route=\"api/todos\",status=\"400\"} 1\n"));
+    assertTrue(metrics.contains("http_request_duration_seconds_count{method=\"GET\",route=\"api/todos\"} 3\n"));
+    assertTrue(metrics.contains(
+        "http_response_size_bytes_bucket{method=\"GET\",route=\"api/todos\",le=\"1000\"} 0\n"));
+    assertTrue(metrics.contains(
+        "http_response_size_bytes_bucket{method=\"GET\",route=\"api/todos\",le=\"10000\"} 3\n"));
+    assertTrue(metrics.contains("http_response_size_bytes_sum{method=\"GET\",route=\"api/todos\"} 15000\n"));
+  }
+
+  /**
+   * Confirm that requests that didn't match a route are all recorded
+   * together, rather than under their own paths.
+   */
+  @Test
+  public void recordsUnmatchedRequestsTogether() {
+    when(ctx.<Long>attribute(anyString())).thenReturn(System.nanoTime());
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.endpointHandlerPath()).thenReturn("");
+    when(ctx.statusCode()).thenReturn(404);
+
+    metricsController.recordRequest(ctx);
+
+    assertTrue(scrape().contains("http_requests_total{method=\"GET\",route=\"unmatched\",status=\"404\"} 1\n"));
+  }
+
+  /**
+   * Confirm that we report response cache hits and misses, and the JVM's
+   * heap and garbage collection metrics.
+   */
+  @Test
+  public void reportsCacheAndJvmMetrics() {
+    ResponseCache cache = new ResponseCache(1000);
+    cache.get("missing");
+    metricsController.addResponseCache("todos", cache);
+
+    String metrics = scrape();
+    assertTrue(metrics.contains("response_cache_hits_total{cache=\"todos\"} 0\n"));
+    assertTrue(metrics.contains("response_cache_misses_total{cache=\"todos\"} 1\n"));
+    assertTrue(metrics.contains("# TYPE jvm_memory_heap_used_bytes gauge\n"));
+    assertTrue(metrics.contains("# TYPE jvm_gc_collections_total counter\n"));
+  }
+
+  /**
+   * Confirm that the histogram puts each value in the right bucket, with
+   * values equal to a bucket's bound counted in that bucket.
+   */
+  @Test
+  public void histogramCountsCumulatively() {
+    Histogram histogram = new Histogram(1, 10, 100);
+    histogram.record(0.5);
+    histogram.record(1);
+    histogram.record(50);
+    histogram.record(1000);
+
+    long[] counts = histogram.cumulativeCounts();
+    assertEquals(2, counts[0]);
+    assertEquals(2, counts[1]);
+    assertEquals(3, counts[2]);
+    assertEquals(4, counts[3]);
+    assertEquals(4, histogram.count());
+    assertEquals(1051.5, histogram.sum());
+  }
+}
@@ -0,0 +1,56 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import umm3601.Main;
+import umm3601.todo.TodoDatabase;
+
+/**
+ * Tests that database queries are recorded as flight recorder events.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class QueryEventSpec {
+
+  @Test
+  public void recordsQueriesWhileRecording() throws IOException {
+    TodoDatabase db = new TodoDatabase(Main.TODO_DATA_FILE);
+    Path file = Files.createTempFile("queries", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(QueryEvent.class).withThreshold(Duration.ZERO);
+      recording.start();
+      db.listTodos(Map.of("status", List.of("complete"), "limit", List.of("5")));
+      recording.stop();
+      recording.dump(file);
+
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+      assertEquals(1, events.size());
+      RecordedEvent event = events.get(0);
+      assertEquals("todos", event.getString("database"));
+      assertEquals("{limit=[5], status=[complete]}", event.getString("queryParams"));
+      assertEquals(5, event.getInt("resultCount"));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void recordsNothingWithoutARecording() {
+    // Nothing should go wrong (or be recorded) when no one is listening.
+    QueryEvent event = QueryEvent.start("todos");
+    event.finish(Map.of(), 0);
+    assertFalse(event.shouldCommit());
+  }
+}
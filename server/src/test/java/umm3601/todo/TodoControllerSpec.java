@@ -1,16 +1,25 @@
 package umm3601.todo;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -21,12 +30,22 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import umm3601.Compression;
+import umm3601.Cursor;
+import umm3601.JsonStreaming;
 import umm3601.Main;
+import umm3601.QueryTiming;
 
 /**
  * Tests the logic of the TodoController
@@ -77,6 +96,32 @@ public class TodoControllerSpec {
     todoController = new TodoController(db);
   }
 
+  /**
+   * Make the mock context's response output stream write into a byte
+   * array, so that we can check whatever the controller writes to it.
+   *
+   * @return the bytes written to the response output stream
+   */
+  private ByteArrayOutputStream captureOutput() {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+      }
+
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+    });
+    return body;
+  }
+
   /**
    * Verify that we can successfully build a `TodoController`
    * and call it's `addRoutes` method. This doesn't verify
@@ -152,6 +197,72 @@ public class TodoControllerSpec {
     }
   }
 
+  /**
+   * Confirm that the owner filter ignores case, so asking for
+   * 'bLaNcHe' gets the same todos as asking for 'Blanche'.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetTodoByOwnerIgnoringCase() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"bLaNcHe"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayCaptor.capture());
+    Todo[] todos = todoArrayCaptor.getValue();
+    assertEquals(db.filterTodosByOwner(db.listTodos(new HashMap<>()), "Blanche").length, todos.length);
+    for (Todo todo : todos) {
+      assertEquals("Blanche", todo.owner);
+    }
+  }
+
+  /**
+   * Confirm that asking for an owner that doesn't exist gives us
+   * an empty array of todos.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void getsNoTodosForUnknownOwner() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Nobody"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayCaptor.capture());
+    assertEquals(0, todoArrayCaptor.getValue().length);
+  }
+
+  /**
+   * Confirm that we can filter by both owner and category at
+   * the same time, and that we get exactly the todos that
+   * have both that owner and that category.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetTodosByOwnerAndCategory() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    queryParams.put("category", Arrays.asList(new String[] {"homework"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayCaptor.capture());
+    Todo[] todos = todoArrayCaptor.getValue();
+    Todo[] expected = db.filterTodosByCategory(
+        db.filterTodosByOwner(db.listTodos(new HashMap<>()), "Fry"), "homework");
+    assertEquals(expected.length, todos.length);
+    for (int i = 0; i < todos.length; i++) {
+      assertEquals(expected[i]._id, todos[i]._id);
+    }
+  }
+
   /**
    * Confirm that we can get all the todos with status 'complete'.
    *
@@ -252,6 +363,50 @@ public class TodoControllerSpec {
     }
   }
 
+  /**
+   * Confirm that the `contains` filter ignores case and can match text
+   * that spans more than one word, and that it finds exactly the todos
+   * we'd find by checking every body by hand.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetTodosByBodyIgnoringCase() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("contains", Arrays.asList(new String[] {"SUNT EX"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayCaptor.capture());
+    Todo[] todos = todoArrayCaptor.getValue();
+    Todo[] expected = db.filterTodosByBody(db.listTodos(new HashMap<>()), "sunt ex");
+    assertTrue(todos.length > 0);
+    assertEquals(expected.length, todos.length);
+    for (Todo todo : todos) {
+      assertTrue(todo.body.toLowerCase().contains("sunt ex"));
+    }
+  }
+
+  /**
+   * Confirm that the `contains` filter still works for search text that
+   * is shorter than three characters.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetTodosByShortBody() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("contains", Arrays.asList(new String[] {"Ex"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayCaptor.capture());
+    Todo[] todos = todoArrayCaptor.getValue();
+    assertEquals(db.filterTodosByBody(db.listTodos(new HashMap<>()), "ex").length, todos.length);
+  }
+
   /**
    * Confirm that `getTodos` works when we have a `limit` query parameter.
    *
@@ -274,6 +429,62 @@ public class TodoControllerSpec {
     assertEquals(20, todoArrayCaptor.getValue().length);
   }
 
+  /**
+   * Confirm that asking for more todos than there are just gives us
+   * all the todos, rather than padding the result out with `null`s.
+   *
+   * @throws IOException if there are problems reading from the JSON "database" file.
+   */
+  @Test
+  public void limitLargerThanDatabaseGetsAllTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] {"100000"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayCaptor.capture());
+    assertEquals(db.size(), todoArrayCaptor.getValue().length);
+  }
+
+  /**
+   * Confirm that combining `orderBy` and `limit` gives us the first
+   * todos in sorted order.
+   *
+   * @throws IOException if there are problems reading from the JSON "database" file.
+   */
+  @Test
+  public void canGetFirstTodosSortedByOwner() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"7"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayCaptor.capture());
+    Todo[] todos = todoArrayCaptor.getValue();
+    Todo[] expected = db.sortTodos(db.listTodos(new HashMap<>()), "owner");
+    assertEquals(7, todos.length);
+    for (int i = 0; i < todos.length; i++) {
+      assertEquals(expected[i]._id, todos[i]._id);
+    }
+  }
+
+  /**
+   * Test that a negative limit gets a reasonable error code back.
+   */
+  @Test
+  public void respondsAppropriatelyToNegativeLimit() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] {"-3"}));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+  }
+
   /**
    * Test that if the Todo sends a request with an illegal value in
    * the limit field (i.e., something that can't be parsed to a number)
@@ -357,6 +568,31 @@ public class TodoControllerSpec {
     }
   }
 
+  /**
+   * Confirm that sorting a filtered set of todos by category gives
+   * the same order as sorting them with `sortTodos()`, including
+   * keeping todos with the same category in their original order.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canSortFilteredTodosByCategory() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Roberta"}));
+    queryParams.put("orderBy", Arrays.asList(new String[] {"category"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayCaptor.capture());
+    Todo[] todos = todoArrayCaptor.getValue();
+    Todo[] expected = db.sortTodos(db.filterTodosByOwner(db.listTodos(new HashMap<>()), "Roberta"), "category");
+    assertEquals(expected.length, todos.length);
+    for (int i = 0; i < todos.length; i++) {
+      assertEquals(expected[i]._id, todos[i]._id);
+    }
+  }
+
   /**
    * Test that if the Todo sends a request with an illegal value in
    * the orderBy field (i.e., an non-applicable todo attribute)
@@ -419,6 +655,355 @@ public class TodoControllerSpec {
     }
   }
 
+  /**
+   * Confirm that asking for a page of todos gives us just that many
+   * todos, along with a cursor for the next page.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetFirstPageOfTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("pageSize", Arrays.asList(new String[] {"25"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayCaptor.capture());
+    assertEquals(25, todoArrayCaptor.getValue().length);
+    verify(ctx).header(eq(Cursor.NEXT_CURSOR_HEADER), anyString());
+  }
+
+  /**
+   * Confirm that following the cursors page by page gives us exactly
+   * the same todos, in the same order, as asking for them all at once.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canPageThroughSortedTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("status", Arrays.asList(new String[] {"complete"}));
+    queryParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    Todo[] allTodos = db.listTodos(queryParams);
+
+    queryParams.put("pageSize", Arrays.asList(new String[] {"11"}));
+    List<Todo> pagedTodos = new ArrayList<>();
+    String cursor;
+    do {
+      Todo[] page = db.listTodos(queryParams);
+      pagedTodos.addAll(Arrays.asList(page));
+      cursor = db.nextCursor(queryParams, page);
+      queryParams.put("cursor", Arrays.asList(new String[] {cursor}));
+    } while (cursor != null);
+
+    assertEquals(allTodos.length, pagedTodos.size());
+    for (int i = 0; i < allTodos.length; i++) {
+      assertEquals(allTodos[i]._id, pagedTodos.get(i)._id);
+    }
+  }
+
+  /**
+   * Confirm that a `limit` covers all the pages together, so that
+   * paging stops once we've had that many todos, whether or not the
+   * todos are sorted.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canPageThroughLimitedTodos() throws IOException {
+    for (String order : new String[] {null, "owner"}) {
+      Map<String, List<String>> queryParams = new HashMap<>();
+      if (order != null) {
+        queryParams.put("orderBy", Arrays.asList(new String[] {order}));
+      }
+      queryParams.put("limit", Arrays.asList(new String[] {"5"}));
+      Todo[] allTodos = db.listTodos(queryParams);
+
+      queryParams.put("pageSize", Arrays.asList(new String[] {"2"}));
+      List<Todo> pagedTodos = new ArrayList<>();
+      Todo[] page;
+      String cursor;
+      do {
+        page = db.listTodos(queryParams);
+        pagedTodos.addAll(Arrays.asList(page));
+        cursor = db.nextCursor(queryParams, page);
+        queryParams.put("cursor", Arrays.asList(new String[] {cursor}));
+      } while (cursor != null);
+
+      assertEquals(1, page.length);
+      assertEquals(5, pagedTodos.size());
+      for (int i = 0; i < allTodos.length; i++) {
+        assertEquals(allTodos[i]._id, pagedTodos.get(i)._id);
+      }
+    }
+  }
+
+  /**
+   * Confirm that a cursor from one ordering can't be used with another.
+   */
+  @Test
+  public void respondsAppropriatelyToCursorForOtherOrder() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"body"}));
+    queryParams.put("cursor", Arrays.asList(new String[] {Cursor.encode("owner", 3)}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+  }
+
+  /**
+   * Confirm that a cursor that isn't a valid token gets a
+   * reasonable error code back.
+   */
+  @Test
+  public void respondsAppropriatelyToIllegalCursor() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("cursor", Arrays.asList(new String[] {"not a cursor!"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+  }
+
+  /**
+   * Confirm that a cursor for the last possible position (which would
+   * overflow when we step past it) gets a reasonable error code back,
+   * whether or not the todos are sorted.
+   */
+  @Test
+  public void respondsAppropriatelyToCursorAtLastPosition() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("cursor", Arrays.asList(new String[] {Cursor.encode("none", Integer.MAX_VALUE)}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+
+    queryParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    queryParams.put("cursor", Arrays.asList(new String[] {Cursor.encode("owner", Integer.MAX_VALUE)}));
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+  }
+
+  /**
+   * Confirm that a controller that streams its responses writes
+   * exactly the same todos, in the same order, as `listTodos()`
+   * returns.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canStreamTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    ByteArrayOutputStream body = captureOutput();
+
+    new TodoController(db, true).getTodos(ctx);
+
+    Todo[] streamedTodos = new ObjectMapper().readValue(body.toByteArray(), Todo[].class);
+    Todo[] expected = db.listTodos(queryParams);
+    assertEquals(expected.length, streamedTodos.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i]._id, streamedTodos[i]._id);
+    }
+  }
+
+  /**
+   * Confirm that a client sending back the ETag it was given for a list of
+   * todos gets `304 Not Modified` for the same query, but gets the todos
+   * for a different query.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void respondsNotModifiedToMatchingETag() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(Header.ETAG), etagCaptor.capture());
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx, times(1)).json(any());
+
+    queryParams.put("owner", Arrays.asList(new String[] {"Blanche"}));
+    todoController.getTodos(ctx);
+
+    verify(ctx, times(2)).json(any());
+  }
+
+  /**
+   * Confirm that an invalid query is turned away without an ETag, even if
+   * the client sends one, so it can never get `304 Not Modified`.
+   */
+  @Test
+  public void respondsToInvalidQueryWithoutETag() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] {"-1"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn("*");
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+
+    verify(ctx, never()).header(eq(Header.ETAG), anyString());
+    verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+  }
+
+  /**
+   * Confirm that asking for the same todos again (even with the
+   * parameters in a different case) gets the cached response, and that
+   * it's the same response we sent the first time.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetRepeatedQueryFromCache() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"blanche"}));
+    queryParams.put("orderBy", Arrays.asList(new String[] {"category"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    ByteArrayOutputStream body = captureOutput();
+
+    TodoController cachingController = new TodoController(db, true);
+    cachingController.getTodos(ctx);
+    assertEquals(0, cachingController.getResponseCache().hitCount());
+    assertEquals(1, cachingController.getResponseCache().missCount());
+
+    Map<String, List<String>> sameQueryParams = new HashMap<>();
+    sameQueryParams.put("orderBy", Arrays.asList(new String[] {"category"}));
+    sameQueryParams.put("owner", Arrays.asList(new String[] {"Blanche"}));
+    when(ctx.queryParamMap()).thenReturn(sameQueryParams);
+    cachingController.getTodos(ctx);
+
+    assertEquals(1, cachingController.getResponseCache().hitCount());
+    ArgumentCaptor<byte[]> resultCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).result(resultCaptor.capture());
+    assertTrue(Arrays.equals(body.toByteArray(), resultCaptor.getValue()));
+  }
+
+  /**
+   * Confirm that a repeated request from a client that accepts gzip gets
+   * the cached response gzipped, and that it decompresses to the same
+   * todos we sent the first time.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetCachedTodosGzipped() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(new HashMap<>());
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip, deflate");
+
+    ByteArrayOutputStream body = captureOutput();
+    ServletOutputStream outputStream = ctx.outputStream();
+    HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+    when(ctx.res()).thenReturn(response);
+    when(response.getOutputStream()).thenReturn(outputStream);
+
+    TodoController cachingController = new TodoController(db, true);
+    cachingController.getTodos(ctx);
+    byte[] uncompressed = body.toByteArray();
+    body.reset();
+    cachingController.getTodos(ctx);
+
+    verify(ctx).header(Header.CONTENT_ENCODING, Compression.GZIP);
+    byte[] decompressed = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray())).readAllBytes();
+    assertTrue(body.size() < uncompressed.length);
+    assertTrue(Arrays.equals(uncompressed, decompressed));
+  }
+
+  /**
+   * Confirm that asking for a timing breakdown (with a header) gets a
+   * `Server-Timing` header with the number of todos going into and out of
+   * each stage of the query.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetTimingBreakdown() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("status", Arrays.asList(new String[] {"complete"}));
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.header(QueryTiming.DEBUG_HEADER)).thenReturn("timing");
+
+    todoController.getTodos(ctx);
+
+    int completeCount = db.filterTodosByStatus(db.listTodos(new HashMap<>()), "complete").length;
+    int resultCount = db.listTodos(queryParams).length;
+    ArgumentCaptor<String> serverTiming = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(QueryTiming.SERVER_TIMING_HEADER), serverTiming.capture());
+    assertTrue(serverTiming.getValue().contains("status;dur="));
+    assertTrue(serverTiming.getValue().contains(";desc=\"" + db.size() + " in, " + completeCount + " out\""));
+    assertTrue(serverTiming.getValue().contains("owner;dur="));
+    assertTrue(serverTiming.getValue().contains(";desc=\"" + completeCount + " in, " + resultCount + " out\""));
+    // There was no limit, so there's no stage for it.
+    assertFalse(serverTiming.getValue().contains("limit;dur="));
+  }
+
+  /**
+   * Confirm that a client asking for newline delimited JSON gets
+   * one todo per line, and gets every matching todo.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetTodosAsNdjson() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("status", Arrays.asList(new String[] {"incomplete"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.header("Accept")).thenReturn(JsonStreaming.NDJSON_CONTENT_TYPE);
+
+    ByteArrayOutputStream body = captureOutput();
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).contentType(JsonStreaming.NDJSON_CONTENT_TYPE);
+    String[] lines = body.toString("UTF-8").split("\n");
+    Todo[] expected = db.listTodos(queryParams);
+    assertEquals(expected.length, lines.length);
+    ObjectMapper mapper = new ObjectMapper();
+    for (int i = 0; i < lines.length; i++) {
+      Todo todo = mapper.readValue(lines[i], Todo.class);
+      assertEquals(expected[i]._id, todo._id);
+      assertEquals(false, todo.status);
+    }
+  }
+
+  /**
+   * Confirm that a client that says it does *not* accept newline
+   * delimited JSON (with `q=0`) gets a regular JSON array.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void doesNotSendNdjsonWithZeroQuality() throws IOException {
+    when(ctx.header("Accept")).thenReturn("application/json, " + JsonStreaming.NDJSON_CONTENT_TYPE + ";q=0");
+
+    todoController.getTodos(ctx);
+
+    verify(ctx, never()).contentType(JsonStreaming.NDJSON_CONTENT_TYPE);
+    verify(ctx).json(todoArrayCaptor.capture());
+    assertEquals(db.size(), todoArrayCaptor.getValue().length);
+  }
+
   @Test
   public void canGetTodoWithSpecifiedId() throws IOException {
     // A specific todo ID known to be in the "database".
@@ -434,6 +1019,27 @@ public class TodoControllerSpec {
     verify(ctx).status(HttpStatus.OK);
   }
 
+  /**
+   * Confirm that a controller that writes JSON directly sends the
+   * database's pre-serialized JSON for the requested todo.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetSerializedTodoWithSpecifiedId() throws IOException {
+    String id = "58895985c1849992336c219b";
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    new TodoController(db, true).getTodo(ctx);
+
+    ArgumentCaptor<byte[]> jsonCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).result(jsonCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    Todo todo = new ObjectMapper().readValue(jsonCaptor.getValue(), Todo.class);
+    assertEquals(id, todo._id.toString());
+    assertEquals(db.getTodo(id).owner, todo.owner);
+  }
+
   /**
    * Confirm that we get a 404 Not Found response when
    * we request a todo ID that doesn't exist.
@@ -448,4 +1054,24 @@ public class TodoControllerSpec {
     });
     assertEquals("No todo with id " + "invalidID" + " was found.", exception.getMessage());
   }
+
+  /**
+   * Confirm that a controller that writes JSON directly also gets a
+   * 404 Not Found response for a todo ID that doesn't exist, whether or
+   * not the ID is a well-formed one.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void respondsAppropriatelyToSerializedRequestForNonexistentId() throws IOException {
+    TodoController directController = new TodoController(db, true);
+    for (String id : new String[] {"invalidID", "000000000000000000000000"}) {
+      when(ctx.pathParam("id")).thenReturn(id);
+      Throwable exception = Assertions.assertThrows(NotFoundResponse.class, () -> {
+        directController.getTodo(ctx);
+      });
+      assertEquals("No todo with id " + id + " was found.", exception.getMessage());
+    }
+    verify(ctx, never()).result(any(byte[].class));
+  }
 }
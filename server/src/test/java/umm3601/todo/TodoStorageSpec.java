@@ -0,0 +1,194 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import umm3601.DatasetGenerator;
+
+/**
+ * Tests that a `TodoDatabase` answers every query the same way whichever
+ * way it stores its todos.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoStorageSpec {
+
+  // Queries covering each filter, sorting, limits, and pages.
+  private static final String[] QUERIES = {
+    "",
+    "owner=Fry",
+    "owner=FRY&status=complete",
+    "category=homework",
+    "category=no such category",
+    "contains=tempor",
+    "contains=ab",
+    "status=incomplete&orderBy=owner&limit=20",
+    "orderBy=body&limit=100",
+    "category=video games&pageSize=50",
+    "owner=Barry&category=reading&orderBy=category"
+  };
+
+  private Todo[] todos;
+  private TodoDatabase objects;
+  private TodoDatabase columnar;
+  private TodoDatabase mapped;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    todos = new DatasetGenerator(DatasetGenerator.DEFAULT_SEED).todos(5000);
+    // Make sure case-insensitive matching and non-ASCII bodies are covered.
+    todos[5].owner = "fry";
+    todos[6].category = "HOMEWORK";
+    todos[7].body = "Ünïcödé tempor body";
+    objects = new TodoDatabase(todos, TodoDatabase.Storage.OBJECTS);
+    columnar = new TodoDatabase(todos, TodoDatabase.Storage.COLUMNAR);
+    mapped = new TodoDatabase(todos, TodoDatabase.Storage.MAPPED);
+  }
+
+  /**
+   * Parse a query string (without URL decoding) into query params.
+   *
+   * @param query the query string
+   * @return the query params
+   */
+  private static Map<String, List<String>> params(String query) {
+    Map<String, List<String>> params = new HashMap<>();
+    if (!query.isEmpty()) {
+      for (String param : query.split("&")) {
+        String[] nameAndValue = param.split("=", 2);
+        params.put(nameAndValue[0], List.of(nameAndValue[1]));
+      }
+    }
+    return params;
+  }
+
+  /**
+   * Check that a database lists the same todos as `objects` for every
+   * query.
+   *
+   * @param database the database to check
+   */
+  private void assertListsTheSameTodos(TodoDatabase database) {
+    for (String query : QUERIES) {
+      Todo[] expected = objects.listTodos(params(query));
+      Todo[] actual = database.listTodos(params(query));
+      assertEquals(expected.length, actual.length, query);
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(expected[i]._id, actual[i]._id, query);
+        assertEquals(expected[i].owner, actual[i].owner, query);
+        assertEquals(expected[i].status, actual[i].status, query);
+        assertEquals(expected[i].body, actual[i].body, query);
+        assertEquals(expected[i].category, actual[i].category, query);
+      }
+      assertEquals(objects.nextCursor(params(query), expected), database.nextCursor(params(query), actual), query);
+    }
+  }
+
+  /**
+   * Check that a database serializes the same JSON as `objects` for every
+   * query.
+   *
+   * @param database the database to check
+   */
+  private void assertSerializesTheSameJson(TodoDatabase database) {
+    assertEquals(objects.getDataVersion(), database.getDataVersion());
+    for (String query : QUERIES) {
+      List<byte[]> expected = new ArrayList<>();
+      List<byte[]> actual = new ArrayList<>();
+      objects.forEachSerializedTodo(params(query), expected::add);
+      database.forEachSerializedTodo(params(query), actual::add);
+      assertEquals(expected.size(), actual.size(), query);
+      for (int i = 0; i < expected.size(); i++) {
+        assertArrayEquals(expected.get(i), actual.get(i), query);
+      }
+    }
+  }
+
+  /**
+   * Check that a database gets the same todo as `objects` by ID.
+   *
+   * @param database the database to check
+   */
+  private void assertGetsTheSameTodo(TodoDatabase database) {
+    Todo todo = database.getTodo(todos[7]._id);
+    assertEquals("Ünïcödé tempor body", todo.body);
+    assertArrayEquals(objects.getSerializedTodo(todos[7]._id), database.getSerializedTodo(todos[7]._id));
+    assertNull(database.getTodo("no such id"));
+  }
+
+  @Test
+  public void listsTheSameTodos() {
+    assertListsTheSameTodos(columnar);
+    assertListsTheSameTodos(mapped);
+  }
+
+  @Test
+  public void serializesTheSameJson() {
+    assertSerializesTheSameJson(columnar);
+    assertSerializesTheSameJson(mapped);
+  }
+
+  @Test
+  public void getsTheSameTodo() {
+    assertGetsTheSameTodo(columnar);
+    assertGetsTheSameTodo(mapped);
+  }
+
+  @Test
+  public void mapsTheSameFileAgainUntilTheDataChanges(@TempDir Path dir) throws IOException {
+    Path dataFile = dir.resolve("todos.json");
+    Path mappedFile = dir.resolve("todos.json.bin");
+    DatasetGenerator generator = new DatasetGenerator(DatasetGenerator.DEFAULT_SEED);
+    try (OutputStream out = Files.newOutputStream(dataFile)) {
+      generator.writeTodos(out, 500);
+    }
+
+    TodoDatabase first = new TodoDatabase(dataFile.toString(), mappedFile);
+    assertTrue(Files.isRegularFile(mappedFile));
+    FileTime made = Files.getLastModifiedTime(mappedFile);
+    TodoDatabase second = new TodoDatabase(dataFile.toString(), mappedFile);
+    assertEquals(made, Files.getLastModifiedTime(mappedFile));
+    assertEquals(500, second.size());
+    assertEquals(first.getDataVersion(), second.getDataVersion());
+    assertEquals(
+        first.listTodos(params("orderBy=owner&limit=50"))[49]._id,
+        second.listTodos(params("orderBy=owner&limit=50"))[49]._id);
+
+    // A different data file means the todo file has to be made again.
+    try (OutputStream out = Files.newOutputStream(dataFile)) {
+      generator.writeTodos(out, 300);
+    }
+    TodoDatabase changed = new TodoDatabase(dataFile.toString(), mappedFile);
+    assertEquals(300, changed.size());
+    assertNotEquals(first.getDataVersion(), changed.getDataVersion());
+
+    // So does an edit that keeps the data file's length and last-modified
+    // time: here, one owner's name changes by a letter.
+    FileTime modified = Files.getLastModifiedTime(dataFile);
+    String json = Files.readString(dataFile);
+    int owner = json.indexOf("\"owner\":\"") + "\"owner\":\"".length();
+    char initial = json.charAt(owner);
+    Files.writeString(dataFile, json.substring(0, owner) + (char) (initial == 'Z' ? 'A' : initial + 1)
+        + json.substring(owner + 1));
+    Files.setLastModifiedTime(dataFile, modified);
+    TodoDatabase edited = new TodoDatabase(dataFile.toString(), mappedFile);
+    assertEquals(300, edited.size());
+    assertNotEquals(changed.getDataVersion(), edited.getDataVersion());
+  }
+}
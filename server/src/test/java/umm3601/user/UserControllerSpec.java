@@ -1,10 +1,16 @@
 package umm3601.user;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -20,12 +26,19 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import umm3601.Cursor;
 import umm3601.Main;
+import umm3601.QueryTiming;
 
 /**
  * Tests the logic of the UserController
@@ -79,6 +92,32 @@ public class UserControllerSpec {
     userController = new UserController(db);
   }
 
+  /**
+   * Make the mock context's response output stream write into a byte
+   * array, so that we can check whatever the controller writes to it.
+   *
+   * @return the bytes written to the response output stream
+   */
+  private ByteArrayOutputStream captureOutput() {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+      }
+
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+    });
+    return body;
+  }
+
   /**
    * Verify that we can successfully build a UserController
    * and call it's `addRoutes` method. This doesn't verify
@@ -183,6 +222,25 @@ public class UserControllerSpec {
     assertEquals("Specified age '" + "abc" + "' can't be parsed to an integer", exception.getMessage());
   }
 
+  /**
+   * Confirm that an invalid query is turned away without an ETag, even if
+   * the client sends one, so it can never get `304 Not Modified`.
+   */
+  @Test
+  public void respondsToInvalidQueryWithoutETag() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("age", Arrays.asList(new String[] {"abc"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn("*");
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+
+    verify(ctx, never()).header(eq(Header.ETAG), anyString());
+    verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+  }
+
   /**
    * Confirm that we can get all the users with company OHMNET.
    *
@@ -203,6 +261,31 @@ public class UserControllerSpec {
     }
   }
 
+  /**
+   * Confirm that asking for a timing breakdown gets a `Server-Timing`
+   * header with a stage for each filter, and the same users as usual.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetTimingBreakdown() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList(new String[] {"OHMNET"}));
+    queryParams.put("age", Arrays.asList(new String[] {"25"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam("debug")).thenReturn("timing");
+
+    userController.getUsers(ctx);
+
+    ArgumentCaptor<String> serverTiming = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(QueryTiming.SERVER_TIMING_HEADER), serverTiming.capture());
+    assertTrue(serverTiming.getValue().startsWith("age;dur="));
+    assertTrue(serverTiming.getValue().contains("company;dur="));
+    assertTrue(serverTiming.getValue().contains("scan;dur="));
+    verify(ctx).json(userArrayCaptor.capture());
+    assertEquals(db.listUsers(queryParams).length, userArrayCaptor.getValue().length);
+  }
+
   @Test
   public void getUsersByRole() throws IOException {
     Map<String, List<String>> queryParams = new HashMap<>();
@@ -243,6 +326,77 @@ public class UserControllerSpec {
     assertEquals(1, userArrayCaptor.getValue().length);
   }
 
+  /**
+   * Confirm that we can page through the users using `pageSize`
+   * and the cursor returned for each page.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canPageThroughUsers() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("pageSize", Arrays.asList(new String[] {"4"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayCaptor.capture());
+    User[] firstPage = userArrayCaptor.getValue();
+    assertEquals(4, firstPage.length);
+    verify(ctx).header(eq(Cursor.NEXT_CURSOR_HEADER), anyString());
+
+    // Follow the cursors to the end, and make sure we see every user once.
+    int userCount = firstPage.length;
+    String cursor = db.nextCursor(queryParams, firstPage);
+    while (cursor != null) {
+      queryParams.put("cursor", Arrays.asList(new String[] {cursor}));
+      User[] page = db.listUsers(queryParams);
+      userCount += page.length;
+      cursor = db.nextCursor(queryParams, page);
+    }
+    assertEquals(db.size(), userCount);
+  }
+
+  /**
+   * Confirm that a page size that isn't a positive number
+   * gets a reasonable error code back.
+   */
+  @Test
+  public void respondsAppropriatelyToIllegalPageSize() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("pageSize", Arrays.asList(new String[] {"0"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
+  /**
+   * Confirm that a controller that streams its responses writes
+   * exactly the same users, in the same order, as `listUsers()`
+   * returns.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canStreamUsers() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    ByteArrayOutputStream body = captureOutput();
+
+    new UserController(db, true).getUsers(ctx);
+
+    User[] streamedUsers = new ObjectMapper().readValue(body.toByteArray(), User[].class);
+    User[] expected = db.listUsers(queryParams);
+    assertEquals(expected.length, streamedUsers.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i]._id, streamedUsers[i]._id);
+    }
+  }
+
   /**
    * Confirm that we get a user when using a valid user ID.
    *
@@ -261,6 +415,50 @@ public class UserControllerSpec {
     verify(ctx).status(HttpStatus.OK);
   }
 
+  /**
+   * Confirm that a client sending back the ETag it was given for a user
+   * gets `304 Not Modified` and no user.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void respondsNotModifiedToMatchingETag() throws IOException {
+    String id = "588935f5c668650dc77df581";
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    userController.getUser(ctx);
+
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(Header.ETAG), etagCaptor.capture());
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(etagCaptor.getValue());
+
+    userController.getUser(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx, times(1)).json(any());
+  }
+
+  /**
+   * Confirm that a controller that writes JSON directly sends the
+   * database's pre-serialized JSON for the requested user.
+   *
+   * @throws IOException if there are problems reading from the "database" file.
+   */
+  @Test
+  public void canGetSerializedUserWithSpecifiedId() throws IOException {
+    String id = "588935f5c668650dc77df581";
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    new UserController(db, true).getUser(ctx);
+
+    ArgumentCaptor<byte[]> jsonCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).result(jsonCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    User user = new ObjectMapper().readValue(jsonCaptor.getValue(), User.class);
+    assertEquals(id, user._id.toString());
+    assertEquals(db.getUser(id).name, user.name);
+  }
+
   /**
    * Confirm that we get a 404 Not Found response when
    * we request a user ID that doesn't exist.